@@ -0,0 +1,111 @@
+package ru.maklas.jscheme.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Generated Jsons of different shapes. Same seed gives the same documents, so runs are comparable **/
+public enum Documents {
+
+	/** Flat objects with many fields **/
+	WIDE {
+		@Override
+		JsonElement generate(Random random) {
+			JsonObject obj = new JsonObject();
+			for (int i = 0; i < 200; i++) {
+				obj.add("field" + i, primitive(random, 50));
+			}
+			return obj;
+		}
+	},
+	/** Objects nested 40 levels deep with a few fields on every level **/
+	DEEP {
+		@Override
+		JsonElement generate(Random random) {
+			JsonObject root = new JsonObject();
+			JsonObject obj = root;
+			for (int depth = 0; depth < 40; depth++) {
+				for (int i = 0; i < 3; i++) {
+					obj.add("value" + i, primitive(random, 50));
+				}
+				JsonObject child = new JsonObject();
+				obj.add("child", child);
+				obj = child;
+			}
+			return root;
+		}
+	},
+	/** Objects with big arrays of small objects and of primitives **/
+	ARRAYS {
+		@Override
+		JsonElement generate(Random random) {
+			JsonObject obj = new JsonObject();
+			JsonArray items = new JsonArray();
+			int size = 100 + random.nextInt(100);
+			for (int i = 0; i < size; i++) {
+				JsonObject item = new JsonObject();
+				item.add("id", primitive(random, 1000));
+				item.add("name", primitive(random, 50));
+				if (random.nextBoolean()) {
+					item.add("optional", primitive(random, 10));
+				}
+				items.add(item);
+			}
+			obj.add("items", items);
+			JsonArray numbers = new JsonArray();
+			for (int i = 0; i < 200; i++) {
+				numbers.add(random.nextInt(1000));
+			}
+			obj.add("numbers", numbers);
+			return obj;
+		}
+	},
+	/** Few fields, but almost every string is unique **/
+	CARDINALITY {
+		@Override
+		JsonElement generate(Random random) {
+			JsonObject obj = new JsonObject();
+			for (int i = 0; i < 20; i++) {
+				obj.addProperty("key" + i, Long.toHexString(random.nextLong()));
+			}
+			obj.addProperty("number", random.nextDouble());
+			return obj;
+		}
+	};
+
+	abstract JsonElement generate(Random random);
+
+	/** Documents of this shape **/
+	public List<JsonElement> generate(int count, long seed) {
+		Random random = new Random(seed);
+		List<JsonElement> documents = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			documents.add(generate(random));
+		}
+		return documents;
+	}
+
+	/** Single document that holds all of the generated documents in an array **/
+	public JsonElement generateSingle(int count, long seed) {
+		JsonArray array = new JsonArray();
+		for (JsonElement document : generate(count, seed)) {
+			array.add(document);
+		}
+		return array;
+	}
+
+	private static JsonElement primitive(Random random, int cardinality) {
+		switch (random.nextInt(4)) {
+			case 0: return new JsonPrimitive("s" + random.nextInt(cardinality));
+			case 1: return new JsonPrimitive(random.nextInt(cardinality));
+			case 2: return new JsonPrimitive(random.nextBoolean());
+			default: return random.nextInt(10) == 0 ? JsonNull.INSTANCE : new JsonPrimitive("v" + random.nextInt(cardinality));
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package ru.maklas.jscheme.benchmarks;
+
+import com.google.gson.JsonElement;
+import org.openjdk.jmh.annotations.*;
+import ru.maklas.jscheme.JsonScheme;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Scheme inference of the same data as one document and as a list of documents **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InferenceBenchmark {
+
+	@Param({"WIDE", "DEEP", "ARRAYS", "CARDINALITY"})
+	public Documents documents;
+
+	@Param({"1000"})
+	public int count;
+
+	private List<JsonElement> list;
+	private JsonElement single;
+	private String text;
+
+	@Setup
+	public void setup() {
+		list = documents.generate(count, 42);
+		single = documents.generateSingle(count, 42);
+		text = single.toString();
+	}
+
+	@Benchmark
+	public JsonScheme schemeOfSingleDocument() {
+		return JsonScheme.getScheme(single);
+	}
+
+	@Benchmark
+	public JsonScheme schemeOfList() {
+		return JsonScheme.getScheme(list);
+	}
+
+	@Benchmark
+	public JsonScheme schemeOfReader() {
+		return JsonScheme.getScheme(new StringReader(text));
+	}
+
+	@Benchmark
+	public JsonScheme schemeOfListParallel() {
+		return JsonScheme.getSchemeParallel(list);
+	}
+
+	/** moreInfo fills the scheme it's called on, so scheme is collected anew every time **/
+	@Benchmark
+	public JsonScheme moreInfo() {
+		return JsonScheme.getScheme(list).moreInfo(list);
+	}
+
+	@Benchmark
+	public JsonScheme detailedScheme() {
+		return JsonScheme.getDetailedScheme(list);
+	}
+}
@@ -0,0 +1,82 @@
+package ru.maklas.jscheme.benchmarks;
+
+import com.google.gson.JsonElement;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.maklas.jscheme.CompiledPath;
+import ru.maklas.jscheme.Path;
+import ru.maklas.jscheme.PathSet;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Path evaluation: single element, wildcards, many paths at once, recursive descent and predicates **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathBenchmark {
+
+	private JsonElement wide;
+	private JsonElement arrays;
+	private Path single;
+	private Path wildcard;
+	private CompiledPath wildcardCompiled;
+	private PathSet set;
+	private Path descent;
+	private Path predicate;
+
+	@Setup
+	public void setup() {
+		wide = Documents.WIDE.generateSingle(100, 42);
+		arrays = Documents.ARRAYS.generateSingle(100, 42);
+		single = Path.parse("/50/field150");
+		wildcard = Path.parse("/*/items/*/name");
+		wildcardCompiled = wildcard.compile();
+		set = new PathSet(wildcard, Path.parse("/*/items/*/id"), Path.parse("/*/numbers/*"));
+		descent = Path.parse("/**/name");
+		predicate = Path.parse("/*/items/[?id==5]/name");
+	}
+
+	@Benchmark
+	public List<JsonElement> singleElement() {
+		return single.get(wide);
+	}
+
+	@Benchmark
+	public JsonElement singleElementGetSingle() {
+		return single.getSingle(wide);
+	}
+
+	@Benchmark
+	public List<JsonElement> singleElementParsed() {
+		return Path.parse("/50/field150").get(wide);
+	}
+
+	@Benchmark
+	public List<JsonElement> wildcard() {
+		return wildcard.get(arrays);
+	}
+
+	@Benchmark
+	public void wildcardForEach(Blackhole blackhole) {
+		wildcardCompiled.forEach(arrays, true, blackhole::consume);
+	}
+
+	@Benchmark
+	public Object pathSet() {
+		return set.get(arrays);
+	}
+
+	@Benchmark
+	public List<JsonElement> recursiveDescent() {
+		return descent.get(arrays);
+	}
+
+	@Benchmark
+	public List<JsonElement> predicate() {
+		return predicate.get(arrays);
+	}
+}
@@ -0,0 +1,39 @@
+package ru.maklas.jscheme.benchmarks;
+
+import com.google.gson.JsonElement;
+import org.openjdk.jmh.annotations.*;
+import ru.maklas.jscheme.JsonScheme;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Rendering of detailed schemes **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+	@Param({"WIDE", "DEEP", "ARRAYS", "CARDINALITY"})
+	public Documents documents;
+
+	private JsonScheme scheme;
+
+	@Setup
+	public void setup() {
+		List<JsonElement> list = documents.generate(1000, 42);
+		scheme = JsonScheme.getDetailedScheme(list);
+	}
+
+	@Benchmark
+	public String toStringFlat() {
+		return scheme.toString();
+	}
+
+	@Benchmark
+	public String toStringTree() {
+		return scheme.toStringTree();
+	}
+}
@@ -5,6 +5,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -17,6 +18,12 @@ public class BaseElementInfo {
 	boolean canBeNull = false;
 	int minArrLength = Integer.MAX_VALUE;
 	int maxArrLength = 0;
+	/** How many times this Element was met, including explicit nulls **/
+	int presentCount;
+	/** How many times this Element was a JsonObject. Used to find out which children were missing **/
+	int objectCount;
+	/** How many times this Element was expected inside of its parent, but wasn't there **/
+	int missingCount;
 
 	public BaseElementInfo(@Nullable JsonElement e) {
 		if (e != null) {
@@ -36,17 +43,73 @@ public class BaseElementInfo {
 			types.add(type);
 		}
 		if (type == JsonArray.class){
-			int size = element.getAsJsonArray().size();
-			if (size > maxArrLength){
-				maxArrLength = size;
-			}
-			if (size < minArrLength){
-				minArrLength = size;
-			}
+			updateArrayLength(element.getAsJsonArray().size());
 		}
 		canBeNull = canBeNull || element == null;
 	}
 
+	void updateType(Class type){
+		types.add(type);
+	}
+
+	void updateArrayLength(int size){
+		if (size > maxArrLength){
+			maxArrLength = size;
+		}
+		if (size < minArrLength){
+			minArrLength = size;
+		}
+	}
+
+	/** Adds information about the same Element collected from other Jsons **/
+	public void merge(BaseElementInfo other){
+		types.addAll(other.types);
+		canBeNull = canBeNull || other.canBeNull;
+		if (other.minArrLength < minArrLength){
+			minArrLength = other.minArrLength;
+		}
+		if (other.maxArrLength > maxArrLength){
+			maxArrLength = other.maxArrLength;
+		}
+		presentCount += other.presentCount;
+		objectCount += other.objectCount;
+		missingCount += other.missingCount;
+	}
+
+	/** Called when this Element was expected inside of its parent, but wasn't there **/
+	void addMissing(int count){
+		canBeNull = true;
+		missingCount += count;
+	}
+
+	/** Writes fields of this info. See {@link SchemeIO} **/
+	void write(SchemeIO.Output out) throws IOException {
+		out.writeByte(SchemeIO.typeMask(types));
+		out.writeBoolean(canBeNull);
+		out.writeVarInt(minArrLength == Integer.MAX_VALUE ? 0 : minArrLength + 1);
+		out.writeVarInt(maxArrLength);
+		out.writeVarInt(presentCount);
+		out.writeVarInt(objectCount);
+		out.writeVarInt(missingCount);
+	}
+
+	static BaseElementInfo read(SchemeIO.Input in) throws IOException {
+		BaseElementInfo info = new BaseElementInfo();
+		info.readFields(in);
+		return info;
+	}
+
+	void readFields(SchemeIO.Input in) throws IOException {
+		types = SchemeIO.types(in.readByte());
+		canBeNull = in.readBoolean();
+		int minArrLength = in.readVarInt();
+		this.minArrLength = minArrLength == 0 ? Integer.MAX_VALUE : minArrLength - 1;
+		maxArrLength = in.readVarInt();
+		presentCount = in.readVarInt();
+		objectCount = in.readVarInt();
+		missingCount = in.readVarInt();
+	}
+
 	public boolean hasType(Class type){
 		return types.contains(type);
 	}
@@ -0,0 +1,437 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Values of a single Path, extracted by {@link ColumnExtractor} into primitive storage.
+ * Every found element takes a row, in the same order as in {@link Path#get(java.util.List, boolean)} with removeNulls = false,
+ * so missing fields are null rows too. Rows of each document follow each other, see {@link #getDocumentStart(int)}.
+ * Path without '*', **, slices and predicates has exactly one row in every document, which is null if the element or any of its parents is missing,
+ * so such columns of the same documents are aligned row by row.
+ * JsonNull and values of other types are null rows: they are set in the null bitmap and hold 0 (-1 for codes of strings).
+ * Not modified after extraction, safe to read from many threads.
+ */
+public abstract class Column {
+
+	public enum Type {
+		/** Json numbers as double **/
+		DOUBLE,
+		/** Json numbers without fraction that fit into long **/
+		LONG,
+		/** Json booleans as a bitset **/
+		BOOLEAN,
+		/** Json strings as codes of the dictionary **/
+		STRING
+	}
+
+	private final Path path;
+	/** Whether or not the path has only keys and indices, so every document has exactly one row **/
+	private final boolean single;
+	private final BitSet nulls = new BitSet();
+	/** Whether or not values are kept in direct ByteBuffers instead of arrays **/
+	final boolean offHeap;
+	int size;
+	private int mismatches;
+	/** First row of every document and the number of rows at the end. Null if every document has exactly one row **/
+	private int[] starts = new int[16];
+	private int documents;
+
+	Column(Path path, boolean offHeap) {
+		this.path = path;
+		this.offHeap = offHeap;
+		this.single = path.compile().isSingle();
+	}
+
+	static Column create(Type type, Path path, boolean offHeap) {
+		switch (type) {
+			case DOUBLE: return new Doubles(path, offHeap);
+			case LONG: return new Longs(path, offHeap);
+			case BOOLEAN: return new Booleans(path);
+			default: return new Strings(path, offHeap);
+		}
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public abstract Type getType();
+
+	/** Number of rows **/
+	public int size() {
+		return size;
+	}
+
+	public int getDocumentCount() {
+		return documents;
+	}
+
+	/**
+	 * First row of the document. Rows of the document are from getDocumentStart(document) to getDocumentStart(document + 1) exclusive.
+	 * Path without '*', **, slices and predicates has a single row in every document, so then row and document are the same.
+	 * Only other paths need this to find rows of the document.
+	 * @param document from 0 to {@link #getDocumentCount()} inclusive
+	 */
+	public int getDocumentStart(int document) {
+		if (document < 0 || document > documents) {
+			throw new IndexOutOfBoundsException("Document " + document + ", documents: " + documents);
+		}
+		return starts == null ? document : starts[document];
+	}
+
+	public boolean isNull(int row) {
+		checkRow(row);
+		return nulls.get(row);
+	}
+
+	public int getNullCount() {
+		return nulls.cardinality();
+	}
+
+	/** Copy of the null bitmap. Bit is set for every null row **/
+	public BitSet getNulls() {
+		return (BitSet) nulls.clone();
+	}
+
+	/** Number of values that were not JsonNull, but couldn't be stored in the column, so they became null rows **/
+	public int getMismatches() {
+		return mismatches;
+	}
+
+	/** Whether or not values are kept outside of the Java heap **/
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/** Adds a row for the found element. Null if the element is missing **/
+	abstract void add(JsonElement e);
+
+	/** Marks current row as null **/
+	final void setNull(JsonElement e) {
+		nulls.set(size);
+		if (e != null && !e.isJsonNull()) {
+			mismatches++;
+		}
+	}
+
+	void startDocument() {
+		if (documents + 1 == starts.length) {
+			starts = Arrays.copyOf(starts, starts.length * 2);
+		}
+		starts[documents++] = size;
+	}
+
+	/** Adds a null row if the document had none, but should have a single one **/
+	void endDocument() {
+		if (single && size == starts[documents - 1]) {
+			add(null);
+		}
+	}
+
+	void finish() {
+		starts[documents] = size;
+		boolean single = size == documents;
+		for (int i = 0; single && i < documents; i++) {
+			single = starts[i] == i;
+		}
+		starts = single ? null : Arrays.copyOf(starts, documents + 1);
+	}
+
+	final void checkRow(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row + ", size: " + size);
+		}
+	}
+
+	/** Direct buffer with place for the number of values of this size. Capacity is doubled every time, like in ArrayList **/
+	static ByteBuffer ensureCapacity(ByteBuffer buffer, int count, int bytes) {
+		if (buffer != null && (long) count * bytes <= buffer.capacity()) return buffer;
+		long capacity = Math.max(buffer == null ? 64 : buffer.capacity() * 2L, (long) count * bytes);
+		if (capacity > Integer.MAX_VALUE) {
+			if ((long) count * bytes > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Column of " + count + " rows doesn't fit into a ByteBuffer");
+			}
+			capacity = Integer.MAX_VALUE;
+		}
+		ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity).order(ByteOrder.nativeOrder());
+		if (buffer != null) {
+			ByteBuffer old = buffer.duplicate();
+			old.clear();
+			grown.put(old);
+			grown.clear();
+		}
+		return grown;
+	}
+
+	/** Read-only view of the first bytes of the buffer **/
+	static ByteBuffer view(ByteBuffer buffer, int bytes) {
+		if (buffer == null) return ByteBuffer.allocateDirect(0).order(ByteOrder.nativeOrder());
+		ByteBuffer view = buffer.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+		view.limit(bytes);
+		return view;
+	}
+
+	@Override
+	public String toString() {
+		return path + " " + getType() + " rows: " + size + " nulls: " + getNullCount();
+	}
+
+	/** Json numbers as double **/
+	public static final class Doubles extends Column {
+
+		private double[] array;
+		private ByteBuffer buffer;
+
+		Doubles(Path path, boolean offHeap) {
+			super(path, offHeap);
+			if (!offHeap) array = new double[16];
+		}
+
+		@Override
+		public Type getType() {
+			return Type.DOUBLE;
+		}
+
+		public double get(int row) {
+			checkRow(row);
+			return offHeap ? buffer.getDouble(row << 3) : array[row];
+		}
+
+		/** Values of all rows in a new array **/
+		public double[] toArray() {
+			if (!offHeap) return Arrays.copyOf(array, size);
+			double[] values = new double[size];
+			getValues().get(values);
+			return values;
+		}
+
+		/** Read-only view of the values without copying. Direct buffer if the column is off-heap **/
+		public DoubleBuffer getValues() {
+			return offHeap ? view(buffer, size << 3).asDoubleBuffer() : DoubleBuffer.wrap(array, 0, size).slice().asReadOnlyBuffer();
+		}
+
+		@Override
+		void add(JsonElement e) {
+			double value = 0;
+			if (e instanceof JsonPrimitive && ((JsonPrimitive) e).isNumber()) {
+				value = e.getAsDouble();
+			} else {
+				setNull(e);
+			}
+			if (offHeap) {
+				buffer = ensureCapacity(buffer, size + 1, 8);
+				buffer.putDouble(size << 3, value);
+			} else {
+				if (size == array.length) {
+					array = Arrays.copyOf(array, size * 2);
+				}
+				array[size] = value;
+			}
+			size++;
+		}
+	}
+
+	/** Json numbers without fraction that fit into long. Other numbers are mismatches **/
+	public static final class Longs extends Column {
+
+		private long[] array;
+		private ByteBuffer buffer;
+
+		Longs(Path path, boolean offHeap) {
+			super(path, offHeap);
+			if (!offHeap) array = new long[16];
+		}
+
+		@Override
+		public Type getType() {
+			return Type.LONG;
+		}
+
+		public long get(int row) {
+			checkRow(row);
+			return offHeap ? buffer.getLong(row << 3) : array[row];
+		}
+
+		/** Values of all rows in a new array **/
+		public long[] toArray() {
+			if (!offHeap) return Arrays.copyOf(array, size);
+			long[] values = new long[size];
+			getValues().get(values);
+			return values;
+		}
+
+		/** Read-only view of the values without copying. Direct buffer if the column is off-heap **/
+		public LongBuffer getValues() {
+			return offHeap ? view(buffer, size << 3).asLongBuffer() : LongBuffer.wrap(array, 0, size).slice().asReadOnlyBuffer();
+		}
+
+		@Override
+		void add(JsonElement e) {
+			long value = 0;
+			if (e instanceof JsonPrimitive && ((JsonPrimitive) e).isNumber()) {
+				Number number = e.getAsNumber();
+				value = number.longValue();
+				//Fraction is dropped and too big numbers overflow, so the value isn't the same number anymore
+				if (value != number.doubleValue()) {
+					value = 0;
+					setNull(e);
+				}
+			} else {
+				setNull(e);
+			}
+			if (offHeap) {
+				buffer = ensureCapacity(buffer, size + 1, 8);
+				buffer.putLong(size << 3, value);
+			} else {
+				if (size == array.length) {
+					array = Arrays.copyOf(array, size * 2);
+				}
+				array[size] = value;
+			}
+			size++;
+		}
+	}
+
+	/** Json booleans as a bitset. Bitsets are always kept on heap, since they take a bit per row **/
+	public static final class Booleans extends Column {
+
+		private final BitSet values = new BitSet();
+
+		Booleans(Path path) {
+			super(path, false);
+		}
+
+		@Override
+		public Type getType() {
+			return Type.BOOLEAN;
+		}
+
+		public boolean get(int row) {
+			checkRow(row);
+			return values.get(row);
+		}
+
+		/** Copy of the values. Bit is set for every true row **/
+		public BitSet getValues() {
+			return (BitSet) values.clone();
+		}
+
+		public int getTrueCount() {
+			return values.cardinality();
+		}
+
+		@Override
+		void add(JsonElement e) {
+			if (e instanceof JsonPrimitive && ((JsonPrimitive) e).isBoolean()) {
+				if (e.getAsBoolean()) values.set(size);
+			} else {
+				setNull(e);
+			}
+			size++;
+		}
+	}
+
+	/**
+	 * Json strings, encoded with a dictionary. Every row holds code of its string, which is its index in {@link #getDictionary()}.
+	 * Codes are given in the order strings are met. Null rows hold -1
+	 */
+	public static final class Strings extends Column {
+
+		/** Distinct strings with the number of their rows **/
+		private final ObjectIntMap<String> dictionary = new ObjectIntMap<>();
+		private int[] array;
+		private ByteBuffer buffer;
+
+		Strings(Path path, boolean offHeap) {
+			super(path, offHeap);
+			if (!offHeap) array = new int[16];
+		}
+
+		@Override
+		public Type getType() {
+			return Type.STRING;
+		}
+
+		/** Code of the string of the row. -1 if the row is null **/
+		public int getCode(int row) {
+			checkRow(row);
+			return offHeap ? buffer.getInt(row << 2) : array[row];
+		}
+
+		/** String of the row. Null if the row is null **/
+		public String get(int row) {
+			int code = getCode(row);
+			return code < 0 ? null : dictionary.keyAt(code);
+		}
+
+		/** Distinct strings, indexed by their codes **/
+		public List<String> getDictionary() {
+			return new AbstractList<String>() {
+				@Override
+				public String get(int index) {
+					if (index < 0 || index >= dictionary.size()) {
+						throw new IndexOutOfBoundsException("Code " + index + ", dictionary size: " + dictionary.size());
+					}
+					return dictionary.keyAt(index);
+				}
+
+				@Override
+				public int size() {
+					return dictionary.size();
+				}
+			};
+		}
+
+		/** Number of rows with the string of this code **/
+		public int getFrequency(int code) {
+			if (code < 0 || code >= dictionary.size()) {
+				throw new IndexOutOfBoundsException("Code " + code + ", dictionary size: " + dictionary.size());
+			}
+			return dictionary.valueAt(code);
+		}
+
+		/** Codes of all rows in a new array **/
+		public int[] toArray() {
+			if (!offHeap) return Arrays.copyOf(array, size);
+			int[] codes = new int[size];
+			getCodes().get(codes);
+			return codes;
+		}
+
+		/** Read-only view of the codes without copying. Direct buffer if the column is off-heap **/
+		public IntBuffer getCodes() {
+			return offHeap ? view(buffer, size << 2).asIntBuffer() : IntBuffer.wrap(array, 0, size).slice().asReadOnlyBuffer();
+		}
+
+		@Override
+		void add(JsonElement e) {
+			int code = -1;
+			if (e instanceof JsonPrimitive && ((JsonPrimitive) e).isString()) {
+				code = dictionary.index(e.getAsString(), 1);
+			} else {
+				setNull(e);
+			}
+			if (offHeap) {
+				buffer = ensureCapacity(buffer, size + 1, 4);
+				buffer.putInt(size << 2, code);
+			} else {
+				if (size == array.length) {
+					array = Arrays.copyOf(array, size * 2);
+				}
+				array[size] = code;
+			}
+			size++;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Extracts values of several Paths straight into primitive columns: numbers into double[] or long[], booleans into a bitset
+ * and strings into int[] codes of a dictionary, each with a bitmap of null rows.
+ * Unlike converting results of {@link Path#get(List, boolean)}, nothing is boxed or collected into lists,
+ * and aggregation over the columns is a loop over an array. Columns can also be kept off-heap in direct ByteBuffers.
+ * All paths are evaluated in a single traversal of every document, see {@link PathSet}.
+ * <pre>
+ * Path price = Path.parse("/price");
+ * Path city = Path.parse("/city");
+ * Columns columns = new ColumnExtractor().doubles(price).strings(city).extract(documents);
+ * double[] prices = columns.doubles(price).toArray();
+ * </pre>
+ * Safe to share between threads once configured.
+ * @see Column
+ */
+public final class ColumnExtractor {
+
+	private final Map<Path, Column.Type> types = new LinkedHashMap<>();
+	private boolean offHeap;
+
+	/** Json numbers of the paths are extracted as double **/
+	public ColumnExtractor doubles(Path... paths) {
+		return add(Column.Type.DOUBLE, paths);
+	}
+
+	/** Json numbers of the paths are extracted as long. Numbers with fraction or too big for long are null rows **/
+	public ColumnExtractor longs(Path... paths) {
+		return add(Column.Type.LONG, paths);
+	}
+
+	/** Json booleans of the paths are extracted into a bitset **/
+	public ColumnExtractor booleans(Path... paths) {
+		return add(Column.Type.BOOLEAN, paths);
+	}
+
+	/** Json strings of the paths are extracted into codes of a dictionary **/
+	public ColumnExtractor strings(Path... paths) {
+		return add(Column.Type.STRING, paths);
+	}
+
+	/** Values are kept in direct ByteBuffers outside of the Java heap. Bitsets are always on heap. false by default **/
+	public ColumnExtractor offHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+		return this;
+	}
+
+	/** Paths of this extractor in the order they were added **/
+	public List<Path> getPaths() {
+		return new ArrayList<>(types.keySet());
+	}
+
+	/** Extracts columns of a single document **/
+	public Columns extract(JsonElement document) {
+		return extract(Collections.singletonList(document));
+	}
+
+	/** Extracts columns of the documents. Rows of every document follow each other, see {@link Column#getDocumentStart(int)} **/
+	public Columns extract(List<JsonElement> documents) {
+		Map<Path, Column> columns = newColumns();
+		BiConsumer<Path, JsonElement> consumer = (path, element) -> columns.get(path).add(element);
+		Column[] array = columns.values().toArray(new Column[0]);
+		PathSet set = new PathSet(types.keySet());
+		for (JsonElement document : documents) {
+			for (Column column : array) {
+				column.startDocument();
+			}
+			set.forEach(document, false, consumer);
+			for (Column column : array) {
+				column.endDocument();
+			}
+		}
+		return finish(columns, documents.size());
+	}
+
+	/**
+	 * Extracts columns of every Json document of the source, while it's read token by token,
+	 * so neither the documents nor lists of their values are built in memory.
+	 * @see PathSet#extract(JsonSource, boolean, BiConsumer)
+	 */
+	public Columns extract(JsonSource source) throws IOException {
+		Map<Path, Column> columns = newColumns();
+		BiConsumer<Path, JsonElement> consumer = (path, element) -> columns.get(path).add(element);
+		Column[] array = columns.values().toArray(new Column[0]);
+		PathSet set = new PathSet(types.keySet());
+		int documents = 0;
+		while (source.peek() != JsonSource.Token.END_DOCUMENT) {
+			for (Column column : array) {
+				column.startDocument();
+			}
+			set.extractNext(source, false, consumer);
+			for (Column column : array) {
+				column.endDocument();
+			}
+			documents++;
+		}
+		SchemeMetrics metrics = JsonScheme.getMetrics();
+		if (metrics != SchemeMetrics.NONE) {
+			for (Column column : columns.values()) {
+				metrics.pathEvaluated(column.getPath(), column.size());
+			}
+		}
+		return finish(columns, documents);
+	}
+
+	/**
+	 * Same as {@link #extract(JsonSource)} for every Json document of the reader, like in newline-delimited Json. Reader is not closed.
+	 * @throws JsonSyntaxException if Json is malformed
+	 * @throws JsonIOException if reading failed
+	 */
+	public Columns extract(Reader reader) {
+		JsonReader jsonReader = new JsonReader(reader);
+		jsonReader.setLenient(true);
+		try {
+			return extract(JsonSource.of(jsonReader));
+		} catch (MalformedJsonException e) {
+			throw new JsonSyntaxException(e);
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+	private ColumnExtractor add(Column.Type type, Path... paths) {
+		for (Path path : paths) {
+			if (types.containsKey(path)) {
+				throw new IllegalArgumentException("Path " + path + " already has a column");
+			}
+			types.put(path, type);
+		}
+		return this;
+	}
+
+	private Map<Path, Column> newColumns() {
+		Map<Path, Column> columns = new LinkedHashMap<>();
+		for (Map.Entry<Path, Column.Type> entry : types.entrySet()) {
+			columns.put(entry.getKey(), Column.create(entry.getValue(), entry.getKey(), offHeap));
+		}
+		return columns;
+	}
+
+	private static Columns finish(Map<Path, Column> columns, int documents) {
+		for (Column column : columns.values()) {
+			column.finish();
+		}
+		return new Columns(columns, documents);
+	}
+
+	@Override
+	public String toString() {
+		return "ColumnExtractor" + types;
+	}
+}
@@ -0,0 +1,63 @@
+package ru.maklas.jscheme;
+
+import java.util.Collections;
+import java.util.Map;
+
+/** Columns of every Path of {@link ColumnExtractor}, extracted from the same documents **/
+public final class Columns {
+
+	private final Map<Path, Column> columns;
+	private final int documents;
+
+	Columns(Map<Path, Column> columns, int documents) {
+		this.columns = Collections.unmodifiableMap(columns);
+		this.documents = documents;
+	}
+
+	public int getDocumentCount() {
+		return documents;
+	}
+
+	/** Columns by their paths, in the order the paths were added to the extractor **/
+	public Map<Path, Column> getColumns() {
+		return columns;
+	}
+
+	/** @throws IllegalArgumentException if there is no column for the path **/
+	public Column get(Path path) {
+		Column column = columns.get(path);
+		if (column == null) {
+			throw new IllegalArgumentException("No column for " + path);
+		}
+		return column;
+	}
+
+	public Column.Doubles doubles(Path path) {
+		return get(path, Column.Doubles.class);
+	}
+
+	public Column.Longs longs(Path path) {
+		return get(path, Column.Longs.class);
+	}
+
+	public Column.Booleans booleans(Path path) {
+		return get(path, Column.Booleans.class);
+	}
+
+	public Column.Strings strings(Path path) {
+		return get(path, Column.Strings.class);
+	}
+
+	private <T extends Column> T get(Path path, Class<T> type) {
+		Column column = get(path);
+		if (!type.isInstance(column)) {
+			throw new IllegalArgumentException("Column of " + path + " is " + column.getType());
+		}
+		return type.cast(column);
+	}
+
+	@Override
+	public String toString() {
+		return "Columns of " + documents + " documents: " + columns.values();
+	}
+}
@@ -0,0 +1,544 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Immutable, pre-parsed form of {@link Path}. Every step is classified once as a key, an array index, a wildcard,
+ * a recursive descent, a slice or a predicate, so evaluation does no string parsing. Safe to share between threads.
+ * Paths with recursive descent, slices or predicates are evaluated by {@link PathMatcher} in a single traversal of the Json.
+ * Obtain it with {@link Path#compile()}.
+ */
+public final class CompiledPath {
+
+	private final Path path;
+	final Step[] steps;
+	/** Null if every step is simple **/
+	final PathMatcher matcher;
+	/** Matcher of simple path for {@link #extract}. Created when it's first needed **/
+	private PathMatcher streamMatcher;
+
+	CompiledPath(Path path) {
+		this.path = path;
+		this.steps = new Step[path.path.length];
+		boolean simple = true;
+		for (int i = 0; i < steps.length; i++) {
+			steps[i] = path.isPattern(i) ? Step.parse(path.path[i]) : Step.key(path.path[i]);
+			simple &= steps[i].isSimple();
+		}
+		this.matcher = simple ? null : new PathMatcher(Collections.singletonList(path), Collections.singletonList(steps));
+	}
+
+	/** Path that was compiled **/
+	public Path getPath() {
+		return path;
+	}
+
+	/** Whether or not every step is a key or an index, so the path finds at most one element in every Json **/
+	boolean isSingle() {
+		for (Step step : steps) {
+			if (step.type != Step.KEY) return false;
+		}
+		return true;
+	}
+
+	/** @see #get(JsonElement, boolean) **/
+	public List<JsonElement> get(JsonElement e) {
+		return get(e, true);
+	}
+
+	/**
+	 * Returns List of JsonElements that reside by this path inside this element.
+	 * Steps that can't be applied (key on a JsonArray, index out of bounds, any step on a primitive) give no results.
+	 * @param e where to apply path
+	 * @param removeNulls removes null values from output
+	 */
+	public List<JsonElement> get(JsonElement e, boolean removeNulls) {
+		List<JsonElement> result = new ArrayList<>();
+		forEach(e, removeNulls, result::add);
+		return result;
+	}
+
+	/** Same as {@link #get(JsonElement, boolean)}, but makes it easier to analyze lists of Json files **/
+	public List<JsonElement> get(List<JsonElement> elements, boolean removeNulls) {
+		List<JsonElement> result = new ArrayList<>();
+		Consumer<JsonElement> collector = result::add;
+		for (JsonElement element : elements) {
+			forEach(element, removeNulls, collector);
+		}
+		return result;
+	}
+
+	/**
+	 * Passes every JsonElement found by this path to the consumer, in the same order as {@link #get(JsonElement, boolean)}.
+	 * No intermediate lists are created.
+	 * @param removeNulls skips null values
+	 */
+	public void forEach(JsonElement e, boolean removeNulls, Consumer<JsonElement> consumer) {
+		SchemeMetrics metrics = JsonScheme.getMetrics();
+		if (metrics != SchemeMetrics.NONE) {
+			int[] results = new int[1];
+			Consumer<JsonElement> delegate = consumer;
+			consumer = element -> {
+				results[0]++;
+				delegate.accept(element);
+			};
+			evaluate(e, removeNulls, consumer);
+			metrics.pathEvaluated(path, results[0]);
+		} else {
+			evaluate(e, removeNulls, consumer);
+		}
+	}
+
+	private void evaluate(JsonElement e, boolean removeNulls, Consumer<JsonElement> consumer) {
+		if (matcher != null) {
+			matcher.forEach(e, removeNulls, (path, element) -> consumer.accept(element));
+		} else {
+			visit(e, 0, removeNulls, false, consumer);
+		}
+	}
+
+	/**
+	 * Follows this path while every Json document of the source is read token by token, so the Json is never built in memory whole.
+	 * Only found elements are built into JsonElements and everything else is skipped,
+	 * so memory depends on the size of the biggest found element, not on the size of the Json.
+	 * JsonObjects checked by predicates and JsonArrays with slices counted from the end are built too, see {@link PathMatcher#extract}.
+	 * Finds the same elements as {@link #forEach(JsonElement, boolean, Consumer)}.
+	 * @param removeNulls skips null values
+	 */
+	public void extract(JsonSource source, boolean removeNulls, Consumer<JsonElement> consumer) throws IOException {
+		PathMatcher matcher = this.matcher;
+		if (matcher == null) {
+			matcher = streamMatcher;
+			if (matcher == null) {
+				matcher = new PathMatcher(Collections.singletonList(path), Collections.singletonList(steps));
+				streamMatcher = matcher;
+			}
+		}
+		SchemeMetrics metrics = JsonScheme.getMetrics();
+		if (metrics != SchemeMetrics.NONE) {
+			int[] results = new int[1];
+			matcher.extract(source, removeNulls, (path, element) -> {
+				results[0]++;
+				consumer.accept(element);
+			});
+			metrics.pathEvaluated(path, results[0]);
+		} else {
+			matcher.extract(source, removeNulls, (path, element) -> consumer.accept(element));
+		}
+	}
+
+	/**
+	 * Same as {@link #extract(JsonSource, boolean, Consumer)} for non-null elements of every Json document of the reader,
+	 * like in newline-delimited Json. Reader is not closed.
+	 * @throws JsonSyntaxException if Json is malformed
+	 * @throws JsonIOException if reading failed
+	 */
+	public void extract(Reader reader, Consumer<JsonElement> consumer) {
+		JsonReader jsonReader = new JsonReader(reader);
+		jsonReader.setLenient(true);
+		try {
+			extract(JsonSource.of(jsonReader), true, consumer);
+		} catch (MalformedJsonException e) {
+			throw new JsonSyntaxException(e);
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+	/**
+	 * Lazy version of {@link #get(JsonElement, boolean)}. Elements are found depth-first one by one, as iterator advances,
+	 * so it's cheap to stop early.
+	 * @param removeNulls skips null values
+	 */
+	public Iterator<JsonElement> iterator(JsonElement e, boolean removeNulls) {
+		return matcher != null ? matcher.iterator(e, removeNulls) : new PathIterator(e, removeNulls);
+	}
+
+	/** Lazy sequential stream of elements found by this path. See {@link #iterator(JsonElement, boolean)} **/
+	public Stream<JsonElement> stream(JsonElement e, boolean removeNulls) {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(e, removeNulls), Spliterator.ORDERED), false);
+	}
+
+	/** Returns single JsonElement, implying that there are no wildcards in the path. Null if there is no such element **/
+	public JsonElement getSingle(JsonElement e) {
+		if (matcher != null) {
+			throw new IllegalStateException("Path " + path + " has wildcard and can't return single element");
+		}
+		for (Step step : steps) {
+			if (e == null || e.isJsonNull()) {
+				return null;
+			}
+			if (e.isJsonObject()) {
+				if (step.any) {
+					throw new IllegalStateException("Path " + path + " has wildcard and can't return single element");
+				}
+				e = e.getAsJsonObject().get(step.key);
+			} else if (e.isJsonArray()) {
+				if (step.any) {
+					throw new IllegalStateException("Path " + path + " has wildcard and can't return single element");
+				}
+				JsonArray arr = e.getAsJsonArray();
+				e = step.index >= 0 && step.index < arr.size() ? arr.get(step.index) : null;
+			} else {
+				throw new RuntimeException("Can't access field '" + step.key + "' inside primitive of type " + e.getClass().getSimpleName());
+			}
+		}
+		return e;
+	}
+
+	/** Returns first JsonElement found by this path. Stops as soon as it's found **/
+	public JsonElement getFirst(JsonElement e) {
+		Iterator<JsonElement> iterator = iterator(e, true);
+		return iterator.hasNext() ? iterator.next() : null;
+	}
+
+	/**
+	 * Same as {@link #get(JsonElement, boolean)} with removeNulls = false, but for a path of {@link JsonScheme}, where * only means elements of JsonArray.
+	 * JsonObject in place of the JsonArray has no such elements, so it gives a missing element (null), same as {@link SchemeAccumulator} counts it.
+	 */
+	List<JsonElement> getInScheme(JsonElement e) {
+		List<JsonElement> result = new ArrayList<>();
+		visit(e, 0, false, true, result::add);
+		return result;
+	}
+
+	/** @param scheme whether or not * only means elements of JsonArray, see {@link #getInScheme(JsonElement)} **/
+	private void visit(JsonElement e, int depth, boolean removeNulls, boolean scheme, Consumer<JsonElement> consumer) {
+		if (depth == steps.length) {
+			if (!removeNulls || (e != null && !e.isJsonNull())) {
+				consumer.accept(e);
+			}
+			return;
+		}
+		if (e == null) return;
+		Step step = steps[depth];
+		if (e.isJsonObject()) {
+			JsonObject obj = e.getAsJsonObject();
+			if (step.any && !scheme) {
+				for (Map.Entry<String, JsonElement> entry : obj.entrySet()) {
+					visit(entry.getValue(), depth + 1, removeNulls, false, consumer);
+				}
+			} else {
+				visit(obj.get(step.key), depth + 1, removeNulls, scheme, consumer);
+			}
+		} else if (e.isJsonArray()) {
+			JsonArray arr = e.getAsJsonArray();
+			if (step.any) {
+				for (JsonElement element : arr) {
+					visit(element, depth + 1, removeNulls, scheme, consumer);
+				}
+			} else if (step.index >= 0 && step.index < arr.size()) {
+				visit(arr.get(step.index), depth + 1, removeNulls, scheme, consumer);
+			}
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return path.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof CompiledPath && path.equals(((CompiledPath) obj).path);
+	}
+
+	@Override
+	public String toString() {
+		return path.toString();
+	}
+
+	/** Depth-first iterator. Keeps one iterator of candidates per step of the path **/
+	private final class PathIterator implements Iterator<JsonElement> {
+
+		private final Iterator<?>[] levels = new Iterator<?>[steps.length + 1];
+		private final boolean removeNulls;
+		private int depth = 0;
+		private JsonElement next;
+		private boolean hasNext;
+
+		PathIterator(JsonElement root, boolean removeNulls) {
+			this.removeNulls = removeNulls;
+			levels[0] = Collections.singletonList(root).iterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (hasNext) return true;
+			while (depth >= 0) {
+				Iterator<?> level = levels[depth];
+				if (!level.hasNext()) {
+					levels[depth--] = null;
+					continue;
+				}
+				Object candidate = level.next();
+				JsonElement e = candidate instanceof Map.Entry ? (JsonElement) ((Map.Entry) candidate).getValue() : (JsonElement) candidate;
+				if (depth == steps.length) {
+					if (!removeNulls || (e != null && !e.isJsonNull())) {
+						next = e;
+						hasNext = true;
+						return true;
+					}
+				} else {
+					levels[depth + 1] = children(e, steps[depth]);
+					depth++;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public JsonElement next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			hasNext = false;
+			JsonElement e = next;
+			next = null;
+			return e;
+		}
+
+		/** Iterator of JsonElements or of object entries, whose values are JsonElements **/
+		private Iterator<?> children(JsonElement e, Step step) {
+			if (e == null) return Collections.emptyIterator();
+			if (e.isJsonObject()) {
+				JsonObject obj = e.getAsJsonObject();
+				return step.any ? obj.entrySet().iterator() : Collections.singletonList(obj.get(step.key)).iterator();
+			}
+			if (e.isJsonArray()) {
+				JsonArray arr = e.getAsJsonArray();
+				if (step.any) return arr.iterator();
+				if (step.index >= 0 && step.index < arr.size()) return Collections.singletonList(arr.get(step.index)).iterator();
+			}
+			return Collections.emptyIterator();
+		}
+	}
+
+	/** Single pre-parsed step of the path **/
+	static final class Step {
+
+		/** Key of JsonObject or index of JsonArray **/
+		static final int KEY = 0;
+		/** All children: * **/
+		static final int ANY = 1;
+		/** This element and all of its descendants: ** **/
+		static final int DESCENT = 2;
+		/** Range of indices of JsonArray: start:end:step **/
+		static final int SLICE = 3;
+		/** Children that are JsonObjects with matching field: ?key=="value" **/
+		static final int PREDICATE = 4;
+
+		final int type;
+		/** Key for JsonObjects **/
+		final String key;
+		/** Index for JsonArrays. -1 if key is not a valid index **/
+		final int index;
+		/** Whether or not this step visits all children **/
+		final boolean any;
+		/** Bounds of the slice. Null if not set, negative are counted from the end of the array **/
+		private final Integer start;
+		private final Integer end;
+		private final int stride;
+		/** Field that predicate checks and its value. Value is null if predicate only checks that field is not null **/
+		private final String field;
+		private final Object value;
+		private final boolean negate;
+
+		private Step(int type, String key, int index, Integer start, Integer end, int stride, String field, Object value, boolean negate) {
+			this.type = type;
+			this.key = key;
+			this.index = index;
+			this.any = type == ANY;
+			this.start = start;
+			this.end = end;
+			this.stride = stride;
+			this.field = field;
+			this.value = value;
+			this.negate = negate;
+		}
+
+		/** Key, index or *. Used for segments that are not patterns, so any key is treated literally **/
+		static Step key(String s) {
+			s = s.trim();
+			return new Step(Path.isAnySign(s) ? ANY : KEY, s, parseIndex(s), null, null, 1, null, null, false);
+		}
+
+		/** Whether or not segment of a parsed path is **, a slice or a predicate **/
+		static boolean isPattern(String s) {
+			s = s.trim();
+			String inner = s.startsWith("[") && s.endsWith("]") ? s.substring(1, s.length() - 1).trim() : s;
+			return inner.startsWith("?") || isSlice(inner) || "**".equals(s);
+		}
+
+		static Step parse(String s) {
+			s = s.trim();
+			String inner = s.startsWith("[") && s.endsWith("]") ? s.substring(1, s.length() - 1).trim() : s;
+			if (inner.startsWith("?")) {
+				return predicate(s, inner.substring(1));
+			}
+			if (isSlice(inner)) {
+				return slice(s, inner);
+			}
+			if ("**".equals(s)) {
+				return new Step(DESCENT, s, -1, null, null, 1, null, null, false);
+			}
+			return key(s);
+		}
+
+		/** Whether or not this step is a key, an index or *, which can be evaluated without {@link PathMatcher} **/
+		boolean isSimple() {
+			return type == KEY || type == ANY;
+		}
+
+		/** Whether or not this is a slice counted from the end, which needs to know size of the array **/
+		boolean needsSize() {
+			return type == SLICE && ((start != null && start < 0) || (end != null && end < 0));
+		}
+
+		/** Whether or not element of the array with this index is selected by the slice **/
+		boolean inSlice(int index, int size) {
+			int from = start == null ? 0 : start < 0 ? Math.max(0, start + size) : start;
+			int to = end == null ? size : end < 0 ? end + size : Math.min(end, size);
+			return index >= from && index < to && (index - from) % stride == 0;
+		}
+
+		/** Whether or not element satisfies the predicate **/
+		boolean test(JsonElement e) {
+			if (e == null || !e.isJsonObject()) return false;
+			JsonElement v = e.getAsJsonObject().get(field);
+			boolean isNull = v == null || v.isJsonNull();
+			boolean result;
+			if (value == null) {
+				result = !isNull;
+			} else if (value == NULL) {
+				result = isNull;
+			} else if (isNull || !v.isJsonPrimitive()) {
+				result = false;
+			} else {
+				JsonPrimitive primitive = v.getAsJsonPrimitive();
+				if (value instanceof String) {
+					result = primitive.isString() && value.equals(primitive.getAsString());
+				} else if (value instanceof Double) {
+					result = primitive.isNumber() && primitive.getAsDouble() == (Double) value;
+				} else {
+					result = primitive.isBoolean() && value.equals(primitive.getAsBoolean());
+				}
+			}
+			return result != negate;
+		}
+
+		/** Value of predicate that matches null and missing fields **/
+		private static final Object NULL = new Object();
+
+		private static Step predicate(String s, String predicate) {
+			int operator = indexOfOperator(predicate);
+			if (operator < 0) {
+				String field = unquote(predicate.trim());
+				if (field.isEmpty()) throw new IllegalArgumentException("Predicate without a field: " + s);
+				return new Step(PREDICATE, s, -1, null, null, 1, field, null, false);
+			}
+			String field = unquote(predicate.substring(0, operator).trim());
+			if (field.isEmpty()) throw new IllegalArgumentException("Predicate without a field: " + s);
+			boolean negate = predicate.charAt(operator) == '!';
+			String literal = predicate.substring(operator + 2).trim();
+			Object value;
+			if (literal.length() >= 2 && (literal.charAt(0) == '"' || literal.charAt(0) == '\'')) {
+				value = unquote(literal);
+			} else if ("null".equals(literal)) {
+				value = NULL;
+			} else if ("true".equals(literal) || "false".equals(literal)) {
+				value = Boolean.valueOf(literal);
+			} else {
+				try {
+					value = Double.valueOf(literal);
+				} catch (NumberFormatException e) {
+					value = literal;
+				}
+			}
+			return new Step(PREDICATE, s, -1, null, null, 1, field, value, negate);
+		}
+
+		/** Index of == or != that is not inside of quotes. -1 if there is none **/
+		private static int indexOfOperator(String s) {
+			char quote = 0;
+			for (int i = 0; i < s.length() - 1; i++) {
+				char c = s.charAt(i);
+				if (quote != 0) {
+					if (c == '\\') i++;
+					else if (c == quote) quote = 0;
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				} else if ((c == '=' || c == '!') && s.charAt(i + 1) == '=') {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private static String unquote(String s) {
+			if (s.length() < 2) return s;
+			char quote = s.charAt(0);
+			if ((quote != '"' && quote != '\'') || s.charAt(s.length() - 1) != quote) return s;
+			StringBuilder sb = new StringBuilder(s.length());
+			for (int i = 1; i < s.length() - 1; i++) {
+				char c = s.charAt(i);
+				if (c == '\\' && i + 1 < s.length() - 1) {
+					c = s.charAt(++i);
+				}
+				sb.append(c);
+			}
+			return sb.toString();
+		}
+
+		/** start:end or start:end:step, where every part is an optional int **/
+		private static boolean isSlice(String s) {
+			int colons = 0;
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c == ':') {
+					colons++;
+				} else if (!(c >= '0' && c <= '9') && !(c == '-' || c == ' ')) {
+					return false;
+				}
+			}
+			return colons == 1 || colons == 2;
+		}
+
+		private static Step slice(String s, String slice) {
+			String[] parts = slice.split(":", -1);
+			try {
+				Integer start = parts[0].trim().isEmpty() ? null : Integer.valueOf(parts[0].trim());
+				Integer end = parts[1].trim().isEmpty() ? null : Integer.valueOf(parts[1].trim());
+				int stride = parts.length < 3 || parts[2].trim().isEmpty() ? 1 : Integer.parseInt(parts[2].trim());
+				if (stride <= 0) throw new IllegalArgumentException("Step of slice must be positive: " + s);
+				return new Step(SLICE, s, -1, start, end, stride, null, null, false);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Malformed slice: " + s, e);
+			}
+		}
+
+		/** Parses non-negative int without throwing. -1 if it's not a valid index **/
+		private static int parseIndex(String s) {
+			if (s.isEmpty() || s.length() > 10) return -1;
+			long value = 0;
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c < '0' || c > '9') return -1;
+				value = value * 10 + (c - '0');
+			}
+			return value > Integer.MAX_VALUE ? -1 : (int) value;
+		}
+	}
+}
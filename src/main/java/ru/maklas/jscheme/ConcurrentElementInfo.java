@@ -0,0 +1,199 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Information about Element that many threads can update at the same time without locking each other.
+ * Types are kept in an atomic bitmask, counters in {@link LongAdder}s and exact string counts in {@link ConcurrentHashMap}.
+ * Statistics that can't be updated atomically (numbers, sketches) are split into per-thread stripes, each with its own lock,
+ * which are merged when info is converted with {@link #toInfo()}.
+ */
+class ConcurrentElementInfo {
+
+	private static final int OBJECT = 1;
+	private static final int ARRAY = 2;
+	private static final int STRING = 4;
+	private static final int NUMBER = 8;
+	private static final int BOOLEAN = 16;
+	private static final int STRIPES = stripes();
+
+	/** Order in which infos were created. Paths of the snapshot are sorted by it **/
+	final long order;
+	private final AtomicInteger types = new AtomicInteger();
+	private volatile boolean canBeNull;
+	private final AtomicInteger minArrLength = new AtomicInteger(Integer.MAX_VALUE);
+	private final AtomicInteger maxArrLength = new AtomicInteger();
+	final LongAdder presentCount = new LongAdder();
+	final LongAdder objectCount = new LongAdder();
+
+	//Only if detailed
+	private final SchemeOptions options;
+	private final LongAdder nonNullCount;
+	private final LongAdder booleanCount;
+	private final LongAdder booleanTrue;
+	private final LongAdder arrayCount;
+	private final LongAdder arraySizeSum;
+	/** Exact string counts. Null if amount of string counters is limited, then strings are counted by stripes **/
+	private final ConcurrentHashMap<String, LongAdder> values;
+	private final AtomicReferenceArray<ExtendedElementInfo> stripes;
+
+	/** @param options options of {@link ExtendedElementInfo}. Null to collect only {@link BaseElementInfo} **/
+	ConcurrentElementInfo(long order, SchemeOptions options) {
+		this.order = order;
+		this.options = options;
+		if (options != null) {
+			nonNullCount = new LongAdder();
+			booleanCount = new LongAdder();
+			booleanTrue = new LongAdder();
+			arrayCount = new LongAdder();
+			arraySizeSum = new LongAdder();
+			values = options.getTopStrings() > 0 ? null : new ConcurrentHashMap<>();
+			stripes = new AtomicReferenceArray<>(STRIPES);
+		} else {
+			nonNullCount = booleanCount = booleanTrue = arrayCount = arraySizeSum = null;
+			values = null;
+			stripes = null;
+		}
+	}
+
+	void update(JsonElement e) {
+		presentCount.increment();
+		if (e == null || e.isJsonNull()) {
+			canBeNull = true;
+			return;
+		}
+		if (e.isJsonObject()) {
+			addType(OBJECT);
+			objectCount.increment();
+		} else if (e.isJsonArray()) {
+			addType(ARRAY);
+			int size = e.getAsJsonArray().size();
+			minArrLength.accumulateAndGet(size, Math::min);
+			maxArrLength.accumulateAndGet(size, Math::max);
+		} else if (e.isJsonPrimitive()) {
+			JsonPrimitive primitive = e.getAsJsonPrimitive();
+			if (primitive.isBoolean()) {
+				addType(BOOLEAN);
+			} else if (primitive.isNumber()) {
+				addType(NUMBER);
+			} else if (primitive.isString()) {
+				addType(STRING);
+			}
+		}
+		if (options != null) {
+			process(e);
+		}
+	}
+
+	private void addType(int type) {
+		int current = types.get();
+		//Types rarely change, so don't write if it's already there
+		while ((current & type) == 0 && !types.compareAndSet(current, current | type)) {
+			current = types.get();
+		}
+	}
+
+	private void process(JsonElement e) {
+		nonNullCount.increment();
+		if (e.isJsonPrimitive()) {
+			JsonPrimitive primitive = e.getAsJsonPrimitive();
+			if (primitive.isString()) {
+				String string = primitive.getAsString();
+				if (values != null) {
+					LongAdder count = values.get(string);
+					if (count == null) {
+						count = values.computeIfAbsent(string, s -> new LongAdder());
+					}
+					count.increment();
+				} else {
+					ExtendedElementInfo stripe = stripe();
+					synchronized (stripe) {
+						stripe.processString(string);
+					}
+				}
+			} else if (primitive.isNumber()) {
+				double number = primitive.getAsDouble();
+				ExtendedElementInfo stripe = stripe();
+				synchronized (stripe) {
+					stripe.processNumber(number);
+				}
+			} else if (primitive.isBoolean()) {
+				booleanCount.increment();
+				if (primitive.getAsBoolean()) {
+					booleanTrue.increment();
+				}
+			}
+		} else if (e.isJsonArray()) {
+			arrayCount.increment();
+			arraySizeSum.add(e.getAsJsonArray().size());
+		}
+	}
+
+	/** Stripe of the current thread. Created on first use, so idle threads cost nothing **/
+	private ExtendedElementInfo stripe() {
+		int index = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		ExtendedElementInfo stripe = stripes.get(index);
+		if (stripe == null) {
+			stripes.compareAndSet(index, null, new ExtendedElementInfo(options));
+			stripe = stripes.get(index);
+		}
+		return stripe;
+	}
+
+	/**
+	 * Copies everything collected so far into a new info, which is detailed if this info is.
+	 * Updates that happen at the same time might be partially visible.
+	 */
+	BaseElementInfo toInfo() {
+		BaseElementInfo info = options != null ? new ExtendedElementInfo(options) : new BaseElementInfo();
+		int types = this.types.get();
+		if ((types & OBJECT) != 0) info.updateType(JsonObject.class);
+		if ((types & ARRAY) != 0) info.updateType(JsonArray.class);
+		if ((types & STRING) != 0) info.updateType(String.class);
+		if ((types & NUMBER) != 0) info.updateType(Number.class);
+		if ((types & BOOLEAN) != 0) info.updateType(Boolean.class);
+		info.canBeNull = canBeNull;
+		info.minArrLength = minArrLength.get();
+		info.maxArrLength = maxArrLength.get();
+		info.presentCount = presentCount.intValue();
+		info.objectCount = objectCount.intValue();
+		if (options == null) return info;
+
+		ExtendedElementInfo extInfo = (ExtendedElementInfo) info;
+		extInfo.addCounters(info.presentCount, nonNullCount.sum(), info.objectCount, booleanCount.sum(), booleanTrue.sum(), arrayCount.sum(), arraySizeSum.sum());
+		if (values != null) {
+			ObjectIntMap<String> counts = new ObjectIntMap<>(values.size());
+			for (Map.Entry<String, LongAdder> e : values.entrySet()) {
+				counts.add(e.getKey(), e.getValue().intValue());
+			}
+			extInfo.addStrings(counts);
+		}
+		for (int i = 0; i < stripes.length(); i++) {
+			ExtendedElementInfo stripe = stripes.get(i);
+			if (stripe != null) {
+				synchronized (stripe) {
+					extInfo.merge(stripe);
+				}
+			}
+		}
+		return extInfo;
+	}
+
+	/** Power of two, about twice the amount of processors, so threads rarely share a stripe **/
+	private static int stripes() {
+		int stripes = 1;
+		while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+			stripes <<= 1;
+		}
+		return stripes;
+	}
+}
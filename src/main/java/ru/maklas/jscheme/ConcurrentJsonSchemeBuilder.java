@@ -0,0 +1,49 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.JsonElement;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Same as {@link JsonSchemeBuilder}, but many threads can accept Jsons at the same time without waiting for each other.
+ * Use it when one scheme is shared by many producers. For a single thread {@link JsonSchemeBuilder} is faster.
+ */
+public class ConcurrentJsonSchemeBuilder {
+
+	private final ConcurrentSchemeAccumulator accumulator;
+	private final LongAdder documentCount = new LongAdder();
+
+	/** Collects only the structure, same as {@link JsonScheme#getScheme(java.util.List)} **/
+	public ConcurrentJsonSchemeBuilder() {
+		accumulator = new ConcurrentSchemeAccumulator(null);
+	}
+
+	/** Collects structure and more information about elements, same as {@link JsonScheme#getDetailedScheme(java.util.List, SchemeOptions)} **/
+	public ConcurrentJsonSchemeBuilder(SchemeOptions options) {
+		if (options == null) throw new NullPointerException("options");
+		accumulator = new ConcurrentSchemeAccumulator(options);
+	}
+
+	/** Adds Json to the scheme. Can be called from any thread **/
+	public ConcurrentJsonSchemeBuilder accept(JsonElement json) {
+		accumulator.add(json);
+		documentCount.increment();
+		return this;
+	}
+
+	/** Amount of Jsons accepted so far **/
+	public long getDocumentCount() {
+		return documentCount.sum();
+	}
+
+	/**
+	 * Scheme of all Jsons accepted so far. Snapshot is a deep copy, so it doesn't change when more Jsons are accepted.
+	 * Jsons that are accepted while snapshot is taken might be partially included.
+	 * Once all producers are done, structure, counts and types are the same as in {@link JsonSchemeBuilder}.
+	 * Limited string counters ({@link SchemeOptions#topStrings(int)}) and quantiles ({@link SchemeOptions#numberQuantiles(int)}) are kept per thread and merged into the snapshot,
+	 * so same as for merged schemes they are approximate and can differ from the ones of a single builder.
+	 */
+	public JsonScheme snapshot() {
+		return accumulator.snapshot().build();
+	}
+}
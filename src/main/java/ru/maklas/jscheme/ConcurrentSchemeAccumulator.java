@@ -0,0 +1,97 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.JsonElement;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects scheme of Json documents that many threads add at the same time.
+ * Unlike {@link SchemeAccumulator}, there is no lock: paths are kept in {@link ConcurrentHashMap}
+ * and every path is updated with {@link ConcurrentElementInfo}.
+ */
+class ConcurrentSchemeAccumulator {
+
+	private final ConcurrentHashMap<Path, ConcurrentElementInfo> map = new ConcurrentHashMap<>();
+	private final AtomicLong sequence = new AtomicLong();
+	/** Options of {@link ExtendedElementInfo}. Null if not detailed **/
+	private final SchemeOptions options;
+	/** How many root elements were JsonObjects **/
+	private final LongAdder rootObjects = new LongAdder();
+
+	/** @param options options of {@link ExtendedElementInfo}. Null to collect only {@link BaseElementInfo} **/
+	ConcurrentSchemeAccumulator(SchemeOptions options) {
+		this.options = options;
+	}
+
+	void add(JsonElement json) {
+		SchemeMetrics metrics = JsonScheme.getMetrics();
+		long start = metrics != SchemeMetrics.NONE ? System.nanoTime() : 0;
+		if (json.isJsonObject()) rootObjects.increment();
+		add(new Path(), json);
+		if (metrics != SchemeMetrics.NONE) {
+			metrics.phase(SchemeMetrics.Phase.WALK, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Copies everything collected so far into sequential accumulator. Paths keep the order in which they were first met.
+	 * Documents that are being added at the same time might be partially included.
+	 */
+	SchemeAccumulator snapshot() {
+		Map<Path, ConcurrentElementInfo> copy = new HashMap<>(map);
+		//Iteration of ConcurrentHashMap might miss a parent that was added while child was not yet, so parents are looked up again.
+		//Parent is always added before its children, so it's in the map by now
+		for (Path path : new ArrayList<>(copy.keySet())) {
+			for (Path parent = path.parent(); parent.path.length > 0 && !copy.containsKey(parent); parent = parent.parent()) {
+				copy.put(parent, map.get(parent));
+			}
+		}
+		List<Map.Entry<Path, ConcurrentElementInfo>> entries = new ArrayList<>(copy.entrySet());
+		entries.sort(Comparator.comparingLong(e -> e.getValue().order));
+		SchemeAccumulator accumulator = new SchemeAccumulator(options);
+		accumulator.rootObjects = rootObjects.intValue();
+		accumulator.rootWeight = accumulator.rootObjects;
+		for (Map.Entry<Path, ConcurrentElementInfo> entry : entries) {
+			accumulator.put(entry.getKey(), entry.getValue().toInfo());
+		}
+		return accumulator;
+	}
+
+	private ConcurrentElementInfo getInfo(Path path) {
+		ConcurrentElementInfo info = map.get(path);
+		if (info == null) {
+			info = map.computeIfAbsent(path, p -> new ConcurrentElementInfo(sequence.getAndIncrement(), options));
+		}
+		return info;
+	}
+
+	/** Schema of the Json tree **/
+	private void add(Path path, JsonElement e) {
+		if (e.isJsonObject()){
+			for (Map.Entry<String, JsonElement> entry : e.getAsJsonObject().entrySet()) {
+				final Path elementPath = path.child(entry.getKey());
+				addValue(elementPath, getInfo(elementPath), entry.getValue());
+			}
+		} else {
+			path = path.child("*");
+			ConcurrentElementInfo info = getInfo(path);
+			for (JsonElement jsonElement : e.getAsJsonArray()) {
+				addValue(path, info, jsonElement);
+			}
+		}
+	}
+
+	private void addValue(Path path, ConcurrentElementInfo info, JsonElement val) {
+		info.update(val);
+		if (val != null && (val.isJsonObject() || val.isJsonArray())) {
+			add(path, val);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package ru.maklas.jscheme;
+
+import java.util.Arrays;
+
+/**
+ * Counters of numbers, same as {@link ObjectIntMap}, but numbers are kept as primitives, so counting doesn't allocate at all.
+ * Numbers are compared by value, 0.0 and -0.0 are the same number.
+ */
+final class DoubleIntMap {
+
+	private double[] keys;
+	private int[] values;
+	/** Index of the entry + 1 in every slot, 0 for empty slots. Kept at most half full **/
+	private int[] table;
+	private int size;
+
+	DoubleIntMap() {
+		this(8);
+	}
+
+	DoubleIntMap(int expectedSize) {
+		int capacity = Math.max(expectedSize, 4);
+		keys = new double[capacity];
+		values = new int[capacity];
+		table = new int[ObjectIntMap.tableSize(capacity)];
+	}
+
+	/** Adds delta to the counter of the number. Counter of a new number starts from 0. Returns new value of the counter **/
+	int add(double key, int delta) {
+		if (key == 0) key = 0; //-0.0
+		long bits = Double.doubleToLongBits(key);
+		int mask = table.length - 1;
+		int slot = hash(bits) & mask;
+		while (true) {
+			int index = table[slot] - 1;
+			if (index < 0) break;
+			if (Double.doubleToLongBits(keys[index]) == bits) {
+				return values[index] += delta;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		keys[size] = key;
+		values[size] = delta;
+		table[slot] = ++size;
+		if (size * 2 > table.length) {
+			rehash(table.length * 2);
+		}
+		return delta;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/** Number of the entry with this index. Entries are indexed in the order they were added **/
+	double keyAt(int index) {
+		return keys[index];
+	}
+
+	int valueAt(int index) {
+		return values[index];
+	}
+
+	/** Adds counters of the other map **/
+	void addAll(DoubleIntMap other) {
+		for (int i = 0; i < other.size; i++) {
+			add(other.keys[i], other.values[i]);
+		}
+	}
+
+	private void rehash(int tableSize) {
+		int[] table = new int[tableSize];
+		int mask = tableSize - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = hash(Double.doubleToLongBits(keys[i])) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = i + 1;
+		}
+		this.table = table;
+	}
+
+	/** Doubles of small integers differ only in high bits, so all bits are mixed (finalizer of MurmurHash3) **/
+	private static int hash(long bits) {
+		bits ^= bits >>> 33;
+		bits *= 0xff51afd7ed558ccdL;
+		bits ^= bits >>> 33;
+		return (int) bits;
+	}
+}
@@ -0,0 +1,74 @@
+package ru.maklas.jscheme;
+
+/**
+ * Value estimated from a random sample, with its 95% confidence interval.
+ * If nothing was sampled, value is exact and interval is empty.
+ */
+public final class Estimate {
+
+	private static final double Z = 1.96;
+
+	private final double value;
+	private final double low;
+	private final double high;
+
+	Estimate(double value, double low, double high) {
+		this.value = value;
+		this.low = low;
+		this.high = high;
+	}
+
+	static Estimate exact(double value) {
+		return new Estimate(value, value, value);
+	}
+
+	/**
+	 * Ratio part / total with Wilson score interval.
+	 * @param effectiveSize amount of independent observations that the sample is worth
+	 */
+	static Estimate ratio(double part, double total, double effectiveSize) {
+		if (total <= 0) return exact(Double.NaN);
+		double p = Math.min(1, Math.max(0, part / total));
+		double n = effectiveSize;
+		double z2 = Z * Z;
+		double denominator = 1 + z2 / n;
+		double center = (p + z2 / (2 * n)) / denominator;
+		double half = Z * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n)) / denominator;
+		return new Estimate(p, Math.max(0, center - half), Math.min(1, center + half));
+	}
+
+	/** Same estimate multiplied by a number **/
+	Estimate times(double factor) {
+		return new Estimate(value * factor, low * factor, high * factor);
+	}
+
+	public double getValue() {
+		return value;
+	}
+
+	/** Lower bound of 95% confidence interval **/
+	public double getLow() {
+		return low;
+	}
+
+	/** Upper bound of 95% confidence interval **/
+	public double getHigh() {
+		return high;
+	}
+
+	/** Whether or not value was computed from all the data **/
+	public boolean isExact() {
+		return low == value && high == value;
+	}
+
+	/** Half-width of the confidence interval, measured from the value to the farthest bound **/
+	public double getError() {
+		return Math.max(value - low, high - value);
+	}
+
+	@Override
+	public String toString() {
+		if (isExact()) return Utils.df(value);
+		return Utils.df(value) + " ±" + Utils.df(getError());
+	}
+}
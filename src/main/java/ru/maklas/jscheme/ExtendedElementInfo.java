@@ -3,17 +3,25 @@ package ru.maklas.jscheme;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.function.IntUnaryOperator;
 
 /** More information about Elements **/
 public class ExtendedElementInfo extends BaseElementInfo {
 
-	private Map<String, Integer> values; //Считаем множественные стринги
-	private int uniqueStringValues; //Количество уникальных стрингов. Не будут содержатся в values
-	//Для определения ср. знач.
-	private int numberCount; //Количество цифр
-	private double numberSum; //Сумма цифр
+	private ObjectIntMap<String> values; //Считаем множественные стринги
+	private SpaceSaving topStrings; //Вместо values, если память ограничена
+	private HyperLogLog distinctStrings; //Оценка количества уникальных значений
+	private HyperLogLog distinctNumbers;
+	private int distinctPrecision; //Скетчи создаются с первой строкой или числом. 0, если не считаются
+	//Для определения ср. знач., разброса и квантилей
+	private NumberStats numbers;
+	//Частоты чисел. null, если не считаются или разных чисел больше maxNumberValues
+	private DoubleIntMap numberValues;
+	private int maxNumberValues;
 	//Подсчёт среднего значения boolean.
 	private int booleanCount;
 	private int booleanTrue;
@@ -23,16 +31,46 @@ public class ExtendedElementInfo extends BaseElementInfo {
 	//Тоже самое, но для длинны массивов.
 	private int arrayCount;
 	private int arraySizeSum;
+	//Веса элементов. Без выборки все веса равны 1. С выборкой вес - сколько элементов представляет каждый выбранный.
+	private boolean sampled;
+	private double weightTotal;
+	private double weightSquares; //Для эффективного размера выборки
+	private double weightNonNull;
+	private double weightObjects;
+	private double weightBoolean;
+	private double weightTrue;
+	private double weightMissing;
+	//Строки и числа выборки и их веса, чтобы пересчитать их частоты на все документы
+	private int stringCount;
+	private double weightStrings;
+	private double weightNumbers;
 
 	public ExtendedElementInfo() {
-		values = new HashMap<>();
+		this(new SchemeOptions());
 	}
 
-	static ExtendedElementInfo fromBase(BaseElementInfo e) {
-		ExtendedElementInfo extInfo = new ExtendedElementInfo();
+	public ExtendedElementInfo(SchemeOptions options) {
+		if (options.getTopStrings() > 0) {
+			topStrings = new SpaceSaving(options.getTopStrings());
+		} else {
+			values = new ObjectIntMap<>();
+		}
+		numbers = new NumberStats(options.getQuantilesK());
+		if (options.getNumberFrequencies() > 0) {
+			maxNumberValues = options.getNumberFrequencies();
+			numberValues = new DoubleIntMap();
+		}
+		distinctPrecision = options.getDistinctPrecision();
+	}
+
+	static ExtendedElementInfo fromBase(BaseElementInfo e, SchemeOptions options) {
+		ExtendedElementInfo extInfo = new ExtendedElementInfo(options);
 		extInfo.canBeNull = e.canBeNull;
 		extInfo.minArrLength = e.minArrLength;
 		extInfo.maxArrLength = e.maxArrLength;
+		extInfo.presentCount = e.presentCount;
+		extInfo.objectCount = e.objectCount;
+		extInfo.missingCount = e.missingCount;
 		extInfo.types = new HashSet<>(e.types);
 		return extInfo;
 	}
@@ -41,45 +79,396 @@ public class ExtendedElementInfo extends BaseElementInfo {
 		for (JsonElement element : elements) {
 			processElement(element);
 		}
-		postProcess();
+	}
+
+	@Override
+	public void merge(BaseElementInfo other) {
+		super.merge(other);
+		if (!(other instanceof ExtendedElementInfo)) return;
+		ExtendedElementInfo o = (ExtendedElementInfo) other;
+		if (o.topStrings != null && topStrings == null) {
+			topStrings = new SpaceSaving(o.topStrings.capacity());
+			topStrings.addAll(values);
+			values = null;
+		}
+		if (topStrings != null) {
+			if (o.topStrings != null) {
+				topStrings.merge(o.topStrings);
+			} else {
+				topStrings.addAll(o.values);
+			}
+		} else {
+			values.addAll(o.values);
+		}
+		weightStrings = stringWeight() + o.stringWeight();
+		weightNumbers = numberWeight() + o.numberWeight();
+		stringCount += o.stringCount;
+		distinctStrings = merge(distinctStrings, o.distinctStrings);
+		distinctNumbers = merge(distinctNumbers, o.distinctNumbers);
+		distinctPrecision = Math.max(distinctPrecision, o.distinctPrecision);
+		mergeNumberValues(o);
+		numbers.merge(o.numbers);
+		booleanCount += o.booleanCount;
+		booleanTrue += o.booleanTrue;
+		totalCount += o.totalCount;
+		nonNullObjectCount += o.nonNullObjectCount;
+		arrayCount += o.arrayCount;
+		arraySizeSum += o.arraySizeSum;
+		sampled = sampled || o.sampled;
+		weightTotal += o.weightTotal;
+		weightSquares += o.weightSquares;
+		weightNonNull += o.weightNonNull;
+		weightObjects += o.weightObjects;
+		weightBoolean += o.weightBoolean;
+		weightTrue += o.weightTrue;
+		weightMissing += o.weightMissing;
+	}
+
+	/** Frequencies stay known only if both infos counted all of their numbers **/
+	private void mergeNumberValues(ExtendedElementInfo o) {
+		if (maxNumberValues == 0 && o.maxNumberValues == 0) return;
+		boolean known = numberValues != null || numbers.getCount() == 0;
+		boolean otherKnown = o.numberValues != null || o.numbers.getCount() == 0;
+		maxNumberValues = Math.max(maxNumberValues, o.maxNumberValues);
+		if (!known || !otherKnown) {
+			numberValues = null;
+			return;
+		}
+		if (numberValues == null) {
+			numberValues = new DoubleIntMap();
+		}
+		if (o.numberValues != null) {
+			numberValues.addAll(o.numberValues);
+		}
+		if (numberValues.size() > maxNumberValues) {
+			numberValues = null;
+		}
+	}
+
+	private static HyperLogLog merge(HyperLogLog a, HyperLogLog b) {
+		if (b == null) return a;
+		if (a == null) return b.copy();
+		a.merge(b);
+		return a;
+	}
+
+	@Override
+	void addMissing(int count) {
+		super.addMissing(count);
+		totalCount += count;
+	}
+
+	/**
+	 * Reports total weight of missing elements, given total weight of the parent JsonObjects.
+	 * Weight that was already reported missing is not reported again.
+	 * @param count amount of missing elements in the sample
+	 */
+	void addMissingWeight(double parentWeight, int count, boolean arrayElement) {
+		double weight = parentWeight - (arrayElement ? weightMissing : weightTotal);
+		if (weight <= 0 || count <= 0) return;
+		weightMissing += weight;
+		weightTotal += weight;
+		weightSquares += weight * weight / count;
+	}
+
+	/** Total weight of strings. Without sampling it's the amount of strings, which is the only thing counted by some sources **/
+	private double stringWeight() {
+		return sampled ? weightStrings : stringCount;
+	}
+
+	private double numberWeight() {
+		return sampled ? weightNumbers : numbers.getCount();
+	}
+
+	/** Amount of strings this info had before the amount was saved, see {@link SchemeIO} version 4 **/
+	private int countStrings() {
+		if (topStrings != null) return (int) topStrings.total();
+		long count = 0;
+		for (int i = 0; i < values.size(); i++) {
+			count += values.valueAt(i);
+		}
+		return (int) count;
+	}
+
+	/** How many strings every sampled string represents on average. 1 if not sampled **/
+	private double stringScale() {
+		return sampled && stringCount > 0 ? weightStrings / stringCount : 1;
+	}
+
+	private double numberScale() {
+		return sampled && numbers.getCount() > 0 ? weightNumbers / numbers.getCount() : 1;
+	}
+
+	/** Amount of strings kept, either exact counts or counters of the most used ones **/
+	int valueMapSize() {
+		return values != null ? values.size() : topStrings.size();
+	}
+
+	/** Total weight of JsonObjects of this element. Used to find out weight of missing children **/
+	double getWeightObjects() {
+		return weightObjects;
 	}
 
 	void processElement(JsonElement e){
+		processElement(e, 1);
+	}
+
+	/** @param weight amount of elements that this sampled element represents. 1 if it's not sampled **/
+	void processElement(JsonElement e, double weight){
+		if (e == null || e.isJsonNull()) {
+			processNull(weight);
+		} else if (e.isJsonPrimitive()) {
+			JsonPrimitive primitive = e.getAsJsonPrimitive();
+			if (primitive.isString()) {
+				processString(primitive.getAsString(), weight);
+			} else if (primitive.isNumber()) {
+				processNumber(primitive.getAsDouble(), weight);
+			} else if (primitive.isBoolean()) {
+				processBoolean(primitive.getAsBoolean(), weight);
+			}
+		} else if (e.isJsonArray()) {
+			processArray(e.getAsJsonArray().size(), weight);
+		} else if (e.isJsonObject()) {
+			processObject(weight);
+		}
+	}
+
+	//Обработка отдельных токенов, чтобы не строить JsonElement при чтении потока
+	void processNull(double weight) {
+		count(weight);
+	}
+
+	void processString(String string, double weight) {
+		countNonNull(weight);
+		weightStrings += weight;
+		processString(string);
+	}
+
+	void processNumber(double number, double weight) {
+		countNonNull(weight);
+		weightNumbers += weight;
+		processNumber(number);
+	}
+
+	void processBoolean(boolean value, double weight) {
+		countNonNull(weight);
+		booleanCount++;
+		weightBoolean += weight;
+		if (value) {
+			booleanTrue++;
+			weightTrue += weight;
+		}
+	}
+
+	void processArray(int size, double weight) {
+		countNonNull(weight);
+		arrayCount++;
+		arraySizeSum += size;
+	}
+
+	void processObject(double weight) {
+		countNonNull(weight);
+		weightObjects += weight;
+	}
+
+	private void count(double weight) {
 		totalCount++;
-		if (e == null || e.isJsonNull()) return;
+		weightTotal += weight;
+		weightSquares += weight * weight;
+		if (weight != 1) {
+			sampled = true;
+		}
+	}
+
+	private void countNonNull(double weight) {
+		count(weight);
 		nonNullObjectCount++;
+		weightNonNull += weight;
+	}
+
+	/** Only string statistics. Counters other than amount of strings are not updated **/
+	void processString(String string) {
+		stringCount++;
+		if (distinctPrecision > 0) {
+			if (distinctStrings == null) {
+				distinctStrings = new HyperLogLog(distinctPrecision);
+			}
+			distinctStrings.add(string);
+		}
+		if (topStrings != null) {
+			topStrings.add(string);
+		} else {
+			values.add(string, 1);
+		}
+	}
+
+	/** Only number statistics. Counters are not updated **/
+	void processNumber(double number) {
+		numbers.add(number);
+		if (distinctPrecision > 0) {
+			if (distinctNumbers == null) {
+				distinctNumbers = new HyperLogLog(distinctPrecision);
+			}
+			distinctNumbers.add(number);
+		}
+		if (numberValues != null && numberValues.add(number, 1) == 1 && numberValues.size() > maxNumberValues) {
+			numberValues = null; //Слишком много разных чисел
+		}
+	}
+
+	/** Adds counters that were collected elsewhere, for example by {@link ConcurrentElementInfo} **/
+	void addCounters(long total, long nonNull, long objects, long booleans, long booleansTrue, long arrays, long arraySizes) {
+		totalCount += total;
+		nonNullObjectCount += nonNull;
+		booleanCount += booleans;
+		booleanTrue += booleansTrue;
+		arrayCount += arrays;
+		arraySizeSum += arraySizes;
+		//Каждый элемент с весом 1
+		weightTotal += total;
+		weightSquares += total;
+		weightNonNull += nonNull;
+		weightObjects += objects;
+		weightBoolean += booleans;
+		weightTrue += booleansTrue;
+	}
+
+	/** Adds exact string counts that were collected elsewhere **/
+	void addStrings(ObjectIntMap<String> counts) {
+		for (int i = 0; i < counts.size(); i++) {
+			stringCount += counts.valueAt(i);
+			weightStrings += counts.valueAt(i);
+		}
+		if (distinctPrecision > 0 && counts.size() > 0) {
+			if (distinctStrings == null) {
+				distinctStrings = new HyperLogLog(distinctPrecision);
+			}
+			for (int i = 0; i < counts.size(); i++) {
+				distinctStrings.add(counts.keyAt(i));
+			}
+		}
+		if (topStrings != null) {
+			topStrings.addAll(counts);
+		} else {
+			values.addAll(counts);
+		}
+	}
 
-		if (e.isJsonPrimitive()) {
-			if (e.getAsJsonPrimitive().isString()) {
-				String string = e.getAsString();
-				Integer count = values.get(string);
-				count = count == null ? 1 : count + 1;
-				values.put(string, count);
-			} else if (e.getAsJsonPrimitive().isNumber()) {
-				numberCount++;
-				numberSum += e.getAsJsonPrimitive().getAsDouble();
-			} else if (e.getAsJsonPrimitive().isBoolean()) {
-				booleanCount++;
-				if (e.getAsBoolean()) {
-					booleanTrue++;
+	/** Writes fields of this info, including all counters and sketches. See {@link SchemeIO} **/
+	@Override
+	void write(SchemeIO.Output out) throws IOException {
+		super.write(out);
+		out.writeVarInt(booleanCount);
+		out.writeVarInt(booleanTrue);
+		out.writeVarInt(totalCount);
+		out.writeVarInt(nonNullObjectCount);
+		out.writeVarInt(arrayCount);
+		out.writeVarInt(arraySizeSum);
+		if (topStrings != null) {
+			out.writeBoolean(true);
+			topStrings.write(out);
+		} else {
+			out.writeBoolean(false);
+			out.writeVarInt(values.size());
+			for (int i = 0; i < values.size(); i++) {
+				out.writeString(values.keyAt(i));
+				out.writeVarInt(values.valueAt(i));
+			}
+		}
+		HyperLogLog.write(distinctStrings, out);
+		HyperLogLog.write(distinctNumbers, out);
+		out.writeVarInt(distinctPrecision);
+		numbers.write(out);
+		out.writeVarInt(stringCount);
+		out.writeBoolean(sampled);
+		if (sampled) {
+			out.writeDouble(weightStrings);
+			out.writeDouble(weightNumbers);
+			out.writeDouble(weightTotal);
+			out.writeDouble(weightSquares);
+			out.writeDouble(weightNonNull);
+			out.writeDouble(weightObjects);
+			out.writeDouble(weightBoolean);
+			out.writeDouble(weightTrue);
+			out.writeDouble(weightMissing);
+		}
+		out.writeVarInt(maxNumberValues);
+		if (maxNumberValues > 0) {
+			out.writeBoolean(numberValues != null);
+			if (numberValues != null) {
+				out.writeVarInt(numberValues.size());
+				for (int i = 0; i < numberValues.size(); i++) {
+					out.writeDouble(numberValues.keyAt(i));
+					out.writeVarInt(numberValues.valueAt(i));
 				}
 			}
-		} else if (e.isJsonArray()) {
-			arrayCount++;
-			arraySizeSum += e.getAsJsonArray().size();
 		}
 	}
 
-	void postProcess(){
-		if (values.size() == 1) return;
-		Iterator<Map.Entry<String, Integer>> iterator = values.entrySet().iterator();
-		while (iterator.hasNext()) {
-			Map.Entry<String, Integer> next = iterator.next();
-			if (next.getValue() != null && next.getValue() == 1){
-				iterator.remove();
-				uniqueStringValues++;
+	static ExtendedElementInfo read(SchemeIO.Input in) throws IOException {
+		ExtendedElementInfo info = new ExtendedElementInfo();
+		info.readFields(in);
+		info.booleanCount = in.readVarInt();
+		info.booleanTrue = in.readVarInt();
+		info.totalCount = in.readVarInt();
+		info.nonNullObjectCount = in.readVarInt();
+		info.arrayCount = in.readVarInt();
+		info.arraySizeSum = in.readVarInt();
+		if (in.readBoolean()) {
+			info.topStrings = SpaceSaving.read(in);
+			info.values = null;
+		} else {
+			int size = in.readVarInt();
+			for (int i = 0; i < size; i++) {
+				info.values.add(in.readString(), in.readVarInt());
 			}
 		}
+		info.distinctStrings = HyperLogLog.read(in);
+		info.distinctNumbers = HyperLogLog.read(in);
+		if (in.version >= 5) {
+			info.distinctPrecision = in.readVarInt();
+		} else if (info.distinctStrings != null || info.distinctNumbers != null) { //Раньше точность не писалась, её знают только скетчи
+			info.distinctPrecision = (info.distinctStrings != null ? info.distinctStrings : info.distinctNumbers).precision();
+		}
+		info.numbers = NumberStats.read(in);
+		info.stringCount = in.version >= 4 ? in.readVarInt() : info.countStrings();
+		info.sampled = in.version >= 2 && in.readBoolean();
+		if (info.sampled && in.version >= 4) {
+			info.weightStrings = in.readDouble();
+			info.weightNumbers = in.readDouble();
+		}
+		if (info.sampled) {
+			info.weightTotal = in.readDouble();
+			info.weightSquares = in.readDouble();
+			info.weightNonNull = in.readDouble();
+			info.weightObjects = in.readDouble();
+			info.weightBoolean = in.readDouble();
+			info.weightTrue = in.readDouble();
+			info.weightMissing = in.readDouble();
+			if (in.version < 4) { //Средний вес значений этого пути
+				double average = info.nonNullObjectCount > 0 ? info.weightNonNull / info.nonNullObjectCount : 1;
+				info.weightStrings = info.stringCount * average;
+				info.weightNumbers = info.numbers.getCount() * average;
+			}
+		} else {
+			//Без выборки веса равны количествам
+			info.weightTotal = info.totalCount;
+			info.weightSquares = info.totalCount;
+			info.weightNonNull = info.nonNullObjectCount;
+			info.weightObjects = info.objectCount;
+			info.weightBoolean = info.booleanCount;
+			info.weightTrue = info.booleanTrue;
+			info.weightMissing = info.missingCount;
+		}
+		info.maxNumberValues = in.version >= 3 ? in.readVarInt() : 0;
+		if (info.maxNumberValues > 0 && in.readBoolean()) {
+			int size = in.readVarInt();
+			info.numberValues = new DoubleIntMap(size);
+			for (int i = 0; i < size; i++) {
+				info.numberValues.add(in.readDouble(), in.readVarInt());
+			}
+		}
+		return info;
 	}
 
 	@Override
@@ -112,21 +501,34 @@ public class ExtendedElementInfo extends BaseElementInfo {
 			} else if (type.equals(Number.class)) {
 				sb.append("[");
 				sb.append(type.getSimpleName());
-				if (numberCount > 0) {
-					sb.append(" Avg: ").append(Utils.df(numberSum / numberCount));
+				if (numbers.getCount() > 0) {
+					sb.append(" ").append(numbers);
+				}
+				if (distinctNumbers != null && numbers.getCount() > 0) {
+					sb.append(" distinct: ~").append(distinctNumbers.estimate());
+				}
+				String mostUsed = getMostUsedNumber();
+				if (mostUsed != null) {
+					sb.append(" ").append(mostUsed);
 				}
 				sb.append("] ");
 			} else if (type.equals(Boolean.class)) {
 				sb.append("[");
 				sb.append(type.getSimpleName());
 				if (booleanCount > 0) {
-					sb.append(" ").append(booleanTrue).append("/").append(booleanCount);
+					if (sampled) {
+						sb.append(" ~").append(percent(getTrueRatio())).append(" true");
+					} else {
+						sb.append(" ").append(booleanTrue).append("/").append(booleanCount);
+					}
 				}
 				sb.append("] ");
 			}
 		}
 
-		if (canBeNull){
+		if (canBeNull && sampled) {
+			sb.append("~").append(percent(getNonNullRatio())).append(" NON NULL");
+		} else if (canBeNull){
 			double percentage = ((nonNullObjectCount * 1.0) / totalCount) * 100;
 			sb.append(Utils.df(percentage)).append("% NON NULL");
 		}
@@ -134,31 +536,202 @@ public class ExtendedElementInfo extends BaseElementInfo {
 		return sb.toString();
 	}
 
+	/**
+	 * Whether or not documents or array elements were sampled for this element (see {@link SchemeOptions#sampleDocuments(int)}),
+	 * so that counts and ratios are estimates.
+	 */
+	public boolean isSampled() {
+		return sampled;
+	}
+
+	/**
+	 * Share of non-null values among all times this element was expected, including the times it was missing.
+	 * Exact, unless sampled. Then it comes with 95% confidence interval. NaN if element was never expected.
+	 */
+	public Estimate getNonNullRatio() {
+		if (!sampled) return Estimate.exact(nonNullObjectCount / (double) totalCount);
+		return Estimate.ratio(weightNonNull, weightTotal, effectiveSize(weightTotal));
+	}
+
+	/** Amount of non-null values, scaled up to all documents if sampled. See {@link #getNonNullRatio()} **/
+	public Estimate getNonNullCount() {
+		if (!sampled) return Estimate.exact(nonNullObjectCount);
+		return getNonNullRatio().times(weightTotal);
+	}
+
+	/** Share of true values among booleans. Exact, unless sampled. NaN if there were no booleans **/
+	public Estimate getTrueRatio() {
+		if (!sampled) return Estimate.exact(booleanTrue / (double) booleanCount);
+		return Estimate.ratio(weightTrue, weightBoolean, effectiveSize(weightBoolean));
+	}
+
+	/** Amount of true values, scaled up to all documents if sampled. See {@link #getTrueRatio()} **/
+	public Estimate getTrueCount() {
+		if (!sampled) return Estimate.exact(booleanTrue);
+		return getTrueRatio().times(weightBoolean);
+	}
+
+	/** Amount of strings, scaled up to all documents if sampled. See {@link #getTopStrings(int)} **/
+	public Estimate getStringCount() {
+		if (!sampled) return Estimate.exact(stringCount);
+		return Estimate.ratio(weightStrings, weightTotal, effectiveSize(weightTotal)).times(weightTotal);
+	}
+
+	/** Amount of numbers, scaled up to all documents if sampled. Statistics of {@link #getNumberStats()} are of the sample **/
+	public Estimate getNumberCount() {
+		if (!sampled) return Estimate.exact(numbers.getCount());
+		return Estimate.ratio(weightNumbers, weightTotal, effectiveSize(weightTotal)).times(weightTotal);
+	}
+
+	/**
+	 * Amount of independent observations that weighted sample is worth (Kish's effective sample size),
+	 * for a part of the values with the given total weight. Values are assumed to have about the same weights.
+	 */
+	private double effectiveSize(double weight) {
+		return weightTotal * weight / weightSquares;
+	}
+
+	private static String percent(Estimate estimate) {
+		String s = Utils.df(estimate.getValue() * 100) + "%";
+		return estimate.isExact() ? s : s + " ±" + Utils.df(estimate.getError() * 100) + "%";
+	}
+
+	/**
+	 * Most used strings with their counts, most frequent first.
+	 * If amount of string counters is limited by {@link SchemeOptions#topStrings(int)}, counts might be overestimated.
+	 * If sampled, counts of the sample are scaled up to all documents by the average weight of sampled strings, so they are estimates.
+	 */
+	public Map<String, Long> getTopStrings(int limit) {
+		Map<String, Long> top;
+		if (topStrings != null) {
+			top = topStrings.top(limit);
+		} else {
+			Integer[] order = byCount(values.size(), values::valueAt);
+			top = new LinkedHashMap<>();
+			for (int i = 0; i < order.length && i < limit; i++) {
+				top.put(values.keyAt(order[i]), (long) values.valueAt(order[i]));
+			}
+		}
+		double scale = stringScale();
+		if (scale != 1) {
+			top.replaceAll((string, count) -> Math.round(count * scale));
+		}
+		return top;
+	}
+
+	/**
+	 * Most used numbers with their counts, most frequent first.
+	 * Empty if numbers are not counted (see {@link SchemeOptions#numberFrequencies(int)}) or there were too many distinct numbers to count.
+	 * If sampled, counts are scaled up to all documents, same as in {@link #getTopStrings(int)}.
+	 */
+	public Map<Double, Long> getTopNumbers(int limit) {
+		Map<Double, Long> top = new LinkedHashMap<>();
+		if (numberValues == null) return top;
+		Integer[] order = byCount(numberValues.size(), numberValues::valueAt);
+		for (int i = 0; i < order.length && i < limit; i++) {
+			top.put(numberValues.keyAt(order[i]), Math.round(numberValues.valueAt(order[i]) * numberScale()));
+		}
+		return top;
+	}
+
+	/** Indices of entries, most frequent first. Entries with the same count keep the order they were added in **/
+	private static Integer[] byCount(int size, IntUnaryOperator counts) {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(counts.applyAsInt(b), counts.applyAsInt(a)));
+		return order;
+	}
+
+	/**
+	 * Amount of distinct strings. Exact, unless amount of string counters is limited by {@link SchemeOptions#topStrings(int)}.
+	 * Then it's estimated if {@link SchemeOptions#approximateDistinct(int)} is enabled. Otherwise -1.
+	 */
+	public long getDistinctStrings() {
+		if (values != null) return values.size();
+		if (!topStrings.isOverflowed()) return topStrings.size();
+		return distinctStrings != null ? distinctStrings.estimate() : -1;
+	}
+
+	/** Statistics of numbers found by this path **/
+	public NumberStats getNumberStats() {
+		return numbers;
+	}
+
+	/** Estimated amount of distinct numbers if {@link SchemeOptions#approximateDistinct(int)} is enabled. Otherwise -1 **/
+	public long getDistinctNumbers() {
+		if (distinctNumbers != null) return distinctNumbers.estimate();
+		return distinctPrecision > 0 ? 0 : -1;
+	}
+
+	/** Most used number if it was met more than once. Null if numbers are not counted **/
+	private String getMostUsedNumber() {
+		if (numberValues == null) return null;
+		int best = -1;
+		for (int i = 0; i < numberValues.size(); i++) {
+			if (numberValues.valueAt(i) > 1 && (best < 0 || numberValues.valueAt(i) > numberValues.valueAt(best))) {
+				best = i;
+			}
+		}
+		if (best < 0) return null;
+		double number = numberValues.keyAt(best);
+		String value = number == Math.rint(number) && Math.abs(number) < 1e15 ? String.valueOf((long) number) : String.valueOf(number);
+		if (sampled) return "Most used: " + value + "(~" + Math.round(numberValues.valueAt(best) * numberScale()) + ")";
+		return "Most used: " + value + "(" + numberValues.valueAt(best) + ")";
+	}
+
 	private String getStringStats() {
-		if (values.size() == 0 && uniqueStringValues == 0) return "";
-		if (values.size() == 1 && uniqueStringValues == 0) {
-			String[] val = values.keySet().toArray(new String[0]);
-			return "always '" + Utils.limit(val[0], 20, "...") + "'";
+		if (topStrings != null && topStrings.isOverflowed()) {
+			Map.Entry<String, Long> mostUsed = topStrings.top(1).entrySet().iterator().next();
+			String distinct = distinctStrings != null ? "distinct: ~" + distinctStrings.estimate() : "distinct: >" + topStrings.capacity();
+			if (mostUsed.getValue() - topStrings.error(mostUsed.getKey()) <= 1) return distinct; //Not guaranteed to repeat at all
+			return "Most used: '" + Utils.limit(mostUsed.getKey(), 20, "...") + "'"
+					+ "(~" + Math.round(mostUsed.getValue() * stringScale()) + ") " + distinct;
+		}
+		ObjectIntMap<String> values = this.values;
+		if (values == null) { //Счётчики topStrings точные, пока не переполнены
+			values = new ObjectIntMap<>(topStrings.size());
+			for (Map.Entry<String, Long> e : topStrings.top(topStrings.size()).entrySet()) {
+				values.add(e.getKey(), e.getValue().intValue());
+			}
+		}
+		if (values.size() == 0) return "";
+		if (values.size() == 1) {
+			return "always '" + Utils.limit(values.keyAt(0), 20, "...") + "'";
 		}
 		StringBuilder sb = new StringBuilder();
-		int maxCount = 0;
+		long maxCount = 1;
 		String maxVal = null;
-		for (Map.Entry<String, Integer> e : values.entrySet()) {
-			if (e.getValue() != null && e.getValue() > maxCount) {
-				maxCount = e.getValue();
-				maxVal = e.getKey();
+		int repeatable = 0;
+		for (int i = 0; i < values.size(); i++) {
+			long count = values.valueAt(i);
+			if (count > 1) {
+				repeatable++;
+			}
+			if (count > maxCount) {
+				maxCount = count;
+				maxVal = values.keyAt(i);
 			}
 		}
 		if (maxVal != null) {
 			sb.append("Most used: '")
 					.append(Utils.limit(maxVal, 20, "..."))
-					.append("'")
-					.append("(").append(maxCount).append(") ");
+					.append("'");
+			if (sampled) {
+				sb.append("(~").append(Math.round(maxCount * stringScale())).append(") ");
+			} else {
+				sb.append("(").append(maxCount).append(") ");
+			}
+		}
+		if (sampled) { //Повторы в выборке ничего не говорят о повторах во всех документах
+			sb.append("distinct in sample: ").append(values.size());
+			return sb.toString();
 		}
-		if (values.size() > 0) {
-			sb.append("Repeatable: ").append(values.size()).append(" ");
+		if (repeatable > 0) {
+			sb.append("Repeatable: ").append(repeatable).append(" ");
 		}
-		sb.append("unique: ").append(uniqueStringValues);
+		sb.append("unique: ").append(values.size() - repeatable);
 		return sb.toString();
 	}
 }
@@ -0,0 +1,91 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+
+/** {@link JsonSource} of Gson's {@link JsonReader} **/
+final class GsonSource implements JsonSource {
+
+	private final JsonReader reader;
+
+	GsonSource(JsonReader reader) {
+		this.reader = reader;
+	}
+
+	@Override
+	public Token peek() throws IOException {
+		switch (reader.peek()) {
+			case BEGIN_OBJECT: return Token.BEGIN_OBJECT;
+			case END_OBJECT: return Token.END_OBJECT;
+			case BEGIN_ARRAY: return Token.BEGIN_ARRAY;
+			case END_ARRAY: return Token.END_ARRAY;
+			case NAME: return Token.NAME;
+			case STRING: return Token.STRING;
+			case NUMBER: return Token.NUMBER;
+			case BOOLEAN: return Token.BOOLEAN;
+			case NULL: return Token.NULL;
+			default: return Token.END_DOCUMENT;
+		}
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+		reader.beginObject();
+	}
+
+	@Override
+	public void endObject() throws IOException {
+		reader.endObject();
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+		reader.beginArray();
+	}
+
+	@Override
+	public void endArray() throws IOException {
+		reader.endArray();
+	}
+
+	@Override
+	public boolean hasNext() throws IOException {
+		return reader.hasNext();
+	}
+
+	@Override
+	public String nextName() throws IOException {
+		return reader.nextName();
+	}
+
+	@Override
+	public String nextString() throws IOException {
+		return reader.nextString();
+	}
+
+	@Override
+	public double nextDouble() throws IOException {
+		return reader.nextDouble();
+	}
+
+	@Override
+	public boolean nextBoolean() throws IOException {
+		return reader.nextBoolean();
+	}
+
+	@Override
+	public void nextNull() throws IOException {
+		reader.nextNull();
+	}
+
+	@Override
+	public void skipValue() throws IOException {
+		reader.skipValue();
+	}
+
+	@Override
+	public String getLocation() {
+		return reader.getPath();
+	}
+}
@@ -0,0 +1,115 @@
+package ru.maklas.jscheme;
+
+import java.io.IOException;
+
+/**
+ * HyperLogLog estimation of the amount of distinct values.
+ * Uses 2^precision one-byte registers. Relative error is about 1.04 / sqrt(2^precision).
+ * Sketches of the same precision can be merged.
+ */
+class HyperLogLog {
+
+	private final int precision;
+	private final byte[] registers;
+
+	HyperLogLog(int precision) {
+		if (precision < 4 || precision > 18) throw new IllegalArgumentException("Precision must be in range 4..18: " + precision);
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	int precision() {
+		return precision;
+	}
+
+	void add(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+		}
+		addHash(mix(hash));
+	}
+
+	void add(double value) {
+		if (value == 0.0) value = 0.0; //-0.0 is the same number
+		addHash(mix(Double.doubleToLongBits(value)));
+	}
+
+	private void addHash(long hash) {
+		int index = (int) (hash >>> (64 - precision));
+		int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+		if (rank > registers[index]) {
+			registers[index] = (byte) rank;
+		}
+	}
+
+	/** Estimated amount of distinct values **/
+	long estimate() {
+		int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for (byte register : registers) {
+			sum += 1.0 / (1L << register);
+			if (register == 0) zeros++;
+		}
+		double estimate = alpha(m) * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0) {
+			estimate = m * Math.log((double) m / zeros); //Linear counting works better for small cardinalities
+		}
+		return Math.round(estimate);
+	}
+
+	void merge(HyperLogLog other) {
+		if (other.precision != precision) throw new IllegalArgumentException("Can't merge HyperLogLog of precision " + other.precision + " into " + precision);
+		for (int i = 0; i < registers.length; i++) {
+			if (other.registers[i] > registers[i]) {
+				registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	HyperLogLog copy() {
+		HyperLogLog copy = new HyperLogLog(precision);
+		System.arraycopy(registers, 0, copy.registers, 0, registers.length);
+		return copy;
+	}
+
+	private static double alpha(int m) {
+		switch (m) {
+			case 16: return 0.673;
+			case 32: return 0.697;
+			case 64: return 0.709;
+			default: return 0.7213 / (1 + 1.079 / m);
+		}
+	}
+
+	/** Finalization step of MurmurHash3. Spreads bits of the hash evenly **/
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/** Writes sketch or absence of it **/
+	static void write(HyperLogLog hll, SchemeIO.Output out) throws IOException {
+		if (hll == null) {
+			out.writeByte(0);
+			return;
+		}
+		out.writeByte(hll.precision);
+		out.writeBytes(hll.registers);
+	}
+
+	/** Reads sketch written by {@link #write(HyperLogLog, SchemeIO.Output)}. Null if there was none **/
+	static HyperLogLog read(SchemeIO.Input in) throws IOException {
+		int precision = in.readByte();
+		if (precision == 0) return null;
+		if (precision < 4 || precision > 18) throw new IOException("Malformed HyperLogLog precision: " + precision);
+		HyperLogLog hll = new HyperLogLog(precision);
+		in.readBytes(hll.registers);
+		return hll;
+	}
+}
@@ -0,0 +1,187 @@
+package ru.maklas.jscheme;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.TreeNode;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+
+/**
+ * {@link JsonSource} of Jackson's streaming parser or tree, so applications that already use Jackson
+ * don't have to convert Json into Gson's JsonElement to collect its scheme.
+ * Jackson is an optional dependency: it must be on the classpath only if this class is used. Jackson 2.10 or newer is required.
+ * <pre>
+ * JsonScheme scheme = JsonScheme.getScheme(JacksonSource.of(objectMapper.readTree(json)));
+ * </pre>
+ */
+public final class JacksonSource implements JsonSource {
+
+	private final JsonParser parser;
+	/** Current token of the parser. Null if there are no more tokens **/
+	private JsonToken current;
+	/** Whether or not current token was consumed and parser has to move to the next one **/
+	private boolean consumed;
+
+	private JacksonSource(JsonParser parser) {
+		this.parser = parser;
+		this.current = parser.currentToken();
+		this.consumed = current == null;
+	}
+
+	/**
+	 * Tokens of the parser, starting from its current token if it was already advanced.
+	 * Every root value that follows is read as a separate document. Parser is not closed.
+	 */
+	public static JsonSource of(JsonParser parser) {
+		return new JacksonSource(parser);
+	}
+
+	/** Tokens of the tree, for example of JsonNode **/
+	public static JsonSource of(TreeNode tree) {
+		return new JacksonSource(tree.traverse());
+	}
+
+	@Override
+	public Token peek() throws IOException {
+		if (consumed) {
+			try {
+				current = parser.nextToken();
+			} catch (JsonProcessingException e) {
+				throw malformed(e);
+			}
+			consumed = false;
+		}
+		if (current == null) return Token.END_DOCUMENT;
+		switch (current) {
+			case START_OBJECT: return Token.BEGIN_OBJECT;
+			case END_OBJECT: return Token.END_OBJECT;
+			case START_ARRAY: return Token.BEGIN_ARRAY;
+			case END_ARRAY: return Token.END_ARRAY;
+			case FIELD_NAME: return Token.NAME;
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT: return Token.NUMBER;
+			case VALUE_TRUE:
+			case VALUE_FALSE: return Token.BOOLEAN;
+			case VALUE_NULL: return Token.NULL;
+			case VALUE_STRING:
+			case VALUE_EMBEDDED_OBJECT: return Token.STRING;
+			default: throw new IOException("Parser has no data available " + getLocation());
+		}
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+		consume(Token.BEGIN_OBJECT);
+	}
+
+	@Override
+	public void endObject() throws IOException {
+		consume(Token.END_OBJECT);
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+		consume(Token.BEGIN_ARRAY);
+	}
+
+	@Override
+	public void endArray() throws IOException {
+		consume(Token.END_ARRAY);
+	}
+
+	@Override
+	public boolean hasNext() throws IOException {
+		Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	@Override
+	public String nextName() throws IOException {
+		consume(Token.NAME);
+		return parser.currentName();
+	}
+
+	@Override
+	public String nextString() throws IOException {
+		Token token = peek();
+		if (token != Token.STRING && token != Token.NUMBER) {
+			throw unexpected(Token.STRING, token);
+		}
+		consumed = true;
+		try {
+			return parser.getText();
+		} catch (JsonProcessingException e) {
+			throw malformed(e);
+		}
+	}
+
+	@Override
+	public double nextDouble() throws IOException {
+		Token token = peek();
+		if (token != Token.NUMBER && token != Token.STRING) {
+			throw unexpected(Token.NUMBER, token);
+		}
+		consumed = true;
+		try {
+			return token == Token.NUMBER ? parser.getDoubleValue() : Double.parseDouble(parser.getText());
+		} catch (JsonProcessingException e) {
+			throw malformed(e);
+		}
+	}
+
+	@Override
+	public boolean nextBoolean() throws IOException {
+		consume(Token.BOOLEAN);
+		return current == JsonToken.VALUE_TRUE;
+	}
+
+	@Override
+	public void nextNull() throws IOException {
+		consume(Token.NULL);
+	}
+
+	@Override
+	public void skipValue() throws IOException {
+		Token token = peek();
+		switch (token) {
+			case BEGIN_OBJECT:
+			case BEGIN_ARRAY:
+				try {
+					parser.skipChildren();
+				} catch (JsonProcessingException e) {
+					throw malformed(e);
+				}
+				break;
+			case NAME:
+			case END_OBJECT:
+			case END_ARRAY:
+			case END_DOCUMENT:
+				throw new IllegalStateException("Expected a value but was " + token + " " + getLocation());
+		}
+		consumed = true;
+	}
+
+	@Override
+	public String getLocation() {
+		return "at " + parser.getParsingContext().pathAsPointer();
+	}
+
+	private void consume(Token expected) throws IOException {
+		Token token = peek();
+		if (token != expected) {
+			throw unexpected(expected, token);
+		}
+		consumed = true;
+	}
+
+	private IllegalStateException unexpected(Token expected, Token token) {
+		return new IllegalStateException("Expected " + expected + " but was " + token + " " + getLocation());
+	}
+
+	/** Syntax errors are reported the same way as by other sources **/
+	private MalformedJsonException malformed(JsonProcessingException e) {
+		return new MalformedJsonException(e.getOriginalMessage() + " " + getLocation(), e);
+	}
+}
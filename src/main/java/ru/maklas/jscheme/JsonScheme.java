@@ -1,19 +1,52 @@
 package ru.maklas.jscheme;
 
 import com.google.gson.JsonElement;
-
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /** Scheme container for Json objects. Not much use except for printing data to string **/
 public class JsonScheme {
 
-	private Map<Path, BaseElementInfo> map;
-	private boolean upgraded = false;
+	private static volatile SchemeMetrics metrics = SchemeMetrics.NONE;
 
-	private JsonScheme(Map<Path, BaseElementInfo> map) {
+	private Map<Path, BaseElementInfo> map;
+	boolean upgraded = false;
+	/** How many root elements were JsonObjects. Needed to find out which fields were missing when schemes are merged **/
+	int rootObjects;
+	/** Total weight of root JsonObjects. Same as rootObjects, unless documents were sampled **/
+	double rootWeight;
+	/** Tree view of the map. Built on demand **/
+	private SchemeNode root;
+	private Map<Path, SchemeNode> nodes;
+
+	JsonScheme(Map<Path, BaseElementInfo> map) {
 		this.map = map;
 	}
 
+	/**
+	 * Installs listener of inference and Path evaluation for the whole application.
+	 * @param metrics listener, or {@link SchemeMetrics#NONE} to stop listening
+	 */
+	public static void setMetrics(SchemeMetrics metrics) {
+		JsonScheme.metrics = Objects.requireNonNull(metrics);
+	}
+
+	public static SchemeMetrics getMetrics() {
+		return metrics;
+	}
+
 	public List<Path> getPaths() {
 		return new ArrayList<>(map.keySet());
 	}
@@ -22,21 +55,69 @@ public class JsonScheme {
 		return map.get(path);
 	}
 
+	/** Map of the scheme. Tree view of the scheme is not updated if this map is modified **/
 	public Map<Path, BaseElementInfo> getMap() {
 		return map;
 	}
 
+	/** Root of the scheme tree. Its children are top level paths **/
+	public SchemeNode getRoot() {
+		if (root == null) {
+			buildTree();
+		}
+		return root;
+	}
+
+	/** Node of this path in the scheme tree. Null if there is no such path in the scheme **/
+	public SchemeNode getNode(Path path) {
+		if (root == null) {
+			buildTree();
+		}
+		return path.depth() == 0 ? root : nodes.get(path);
+	}
+
+	private void buildTree() {
+		SchemeNode root = new SchemeNode(new Path(), null, null);
+		Map<Path, SchemeNode> nodes = new HashMap<>(map.size() * 2);
+		for (Path path : map.keySet()) {
+			Path parentPath = path.parent();
+			SchemeNode parent = parentPath.depth() == 0 ? root : nodes.get(parentPath);
+			if (parent == null) {
+				throw new IllegalStateException("Parent of " + path + " must be in the scheme before it");
+			}
+			SchemeNode node = new SchemeNode(path, map.get(path), parent);
+			parent.addChild(node);
+			nodes.put(path, node);
+		}
+		this.nodes = nodes;
+		this.root = root;
+	}
+
 	/**
 	 * Fills with much more information, such as contents of elements.
 	 * @param e must be the same as was used to created JsonScheme
 	 */
 	public JsonScheme moreInfo(JsonElement e) {
-		upgrade();
+		return moreInfo(e, new SchemeOptions());
+	}
+
+	/**
+	 * Fills with much more information, such as contents of elements.
+	 * @param e must be the same as was used to created JsonScheme
+	 * @param options how information is collected
+	 */
+	public JsonScheme moreInfo(JsonElement e, SchemeOptions options) {
+		SchemeMetrics metrics = JsonScheme.metrics;
+		long start = metrics != SchemeMetrics.NONE ? System.nanoTime() : 0;
+		upgrade(options);
 
 		for (Map.Entry<Path, BaseElementInfo> entry : map.entrySet()) {
-			List<JsonElement> elements = entry.getKey().get(e, false);
+			List<JsonElement> elements = entry.getKey().compile().getInScheme(e);
 			((ExtendedElementInfo) entry.getValue()).process(elements);
 		}
+		if (metrics != SchemeMetrics.NONE) {
+			metrics.phase(SchemeMetrics.Phase.MORE_INFO, System.nanoTime() - start);
+		}
 		return this;
 	}
 
@@ -45,140 +126,332 @@ public class JsonScheme {
 	 * @param elements must be the same as was used to created JsonScheme
 	 */
 	public JsonScheme moreInfo(List<JsonElement> elements) {
-		upgrade();
+		return moreInfo(elements, new SchemeOptions());
+	}
+
+	/**
+	 * Fills with much more information, such as contents of elements.
+	 * @param elements must be the same as was used to created JsonScheme
+	 * @param options how information is collected
+	 */
+	public JsonScheme moreInfo(List<JsonElement> elements, SchemeOptions options) {
+		SchemeMetrics metrics = JsonScheme.metrics;
+		long start = metrics != SchemeMetrics.NONE ? System.nanoTime() : 0;
+		upgrade(options);
+		List<JsonElement> sample = Sampling.documents(elements, options.getSampleDocuments(), new SplittableRandom(options.getSamplingSeed()));
+		double weight = sample.isEmpty() ? 1 : elements.size() / (double) sample.size();
 
 		for (Map.Entry<Path, BaseElementInfo> entry : map.entrySet()) {
 			ExtendedElementInfo info = (ExtendedElementInfo) entry.getValue();
 
-			for (JsonElement element : elements) {
-				List<JsonElement> values = entry.getKey().get(element, false);
+			for (JsonElement element : sample) {
+				List<JsonElement> values = entry.getKey().compile().getInScheme(element);
 				for (JsonElement e : values) {
-					info.processElement(e);
+					info.processElement(e, weight);
 				}
 			}
-			info.postProcess();
+		}
+		if (metrics != SchemeMetrics.NONE) {
+			metrics.phase(SchemeMetrics.Phase.MORE_INFO, System.nanoTime() - start);
 		}
 		return this;
 	}
 
-	private void upgrade(){
+	private void upgrade(SchemeOptions options){
 		if (!upgraded) {
 			for (Map.Entry<Path, BaseElementInfo> entry : map.entrySet()) {
-				map.put(entry.getKey(), ExtendedElementInfo.fromBase(entry.getValue()));
+				map.put(entry.getKey(), ExtendedElementInfo.fromBase(entry.getValue(), options));
 			}
 			upgraded = true;
+			root = null;
+			nodes = null;
 		}
 	}
 
 	/** Returns list of Paths that are direct children of the specified parent **/
 	public List<Path> getDirectChildren(Path parent){
-		List<Path> children = new ArrayList<>();
-		for (Path path : map.keySet()) {
-			if (path.isDirectChildOf(parent)) {
-				children.add(path);
-			}
+		SchemeNode node = getNode(parent);
+		if (node == null) return new ArrayList<>();
+		List<Path> children = new ArrayList<>(node.children().size());
+		for (SchemeNode child : node.children()) {
+			children.add(child.getPath());
 		}
 		return children;
 	}
 
 	/** Returns Parent of this child if it's in the Scheme **/
 	public Path getDirectParent(Path child){
-		for (Path path : map.keySet()) {
-			if (child.isDirectChildOf(path)) {
-				return path;
-			}
-		}
-		return null;
+		if (child.depth() <= 1) return null;
+		Path parent = child.parent();
+		return map.containsKey(parent) ? parent : null;
 	}
 
 	/** Schema for jsons **/
 	public static JsonScheme getScheme(List<JsonElement> jsonRoots) {
-		Map<Path, BaseElementInfo> map = new LinkedHashMap<>();
-
+		SchemeAccumulator accumulator = new SchemeAccumulator(null);
 		for (JsonElement json : jsonRoots) {
-			getScheme(map, new Path(), json);
+			accumulator.add(json);
 		}
+		return accumulator.build();
+	}
 
-		for (Map.Entry<Path, BaseElementInfo> entry : map.entrySet()) {
-			if (entry.getValue().canBeNull) continue; //This check is only viable if it can't be null
-
-			for (JsonElement json : jsonRoots) {
-				List<JsonElement> values = entry.getKey().get(json, false);
-				for (JsonElement value : values) {
-					if (value == null || value.isJsonNull()) {
-						entry.getValue().canBeNull = true;
-						break;
-					}
-				}
-				if (entry.getValue().canBeNull) break;
-			}
+	/** Schema of the Json tree **/
+	public static JsonScheme getScheme(JsonElement e) {
+		return getScheme(Collections.singletonList(e));
+	}
+
+	/**
+	 * Schema of the Json that is read from the stream. JsonElement tree is never built,
+	 * so memory consumption depends on the size of the scheme, not on the size of the document.
+	 * Reader is not closed.
+	 * @throws JsonSyntaxException if Json is malformed
+	 * @throws JsonIOException if reading failed
+	 */
+	public static JsonScheme getScheme(Reader reader) {
+		SchemeAccumulator accumulator = new SchemeAccumulator(null);
+		accumulator.add(reader);
+		return accumulator.build();
+	}
+
+	/** Same as {@link #getScheme(Reader)}. Stream is expected to be in UTF-8 and is not closed **/
+	public static JsonScheme getScheme(InputStream in) {
+		return getScheme(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Schema of every Json document of the source, for example of Jackson's parser ({@link JacksonSource})
+	 * or of UTF-8 bytes ({@link JsonSource#of(byte[])}). JsonElement trees are never built.
+	 * @throws JsonSyntaxException if Json is malformed
+	 * @throws JsonIOException if reading failed
+	 */
+	public static JsonScheme getScheme(JsonSource source) {
+		SchemeAccumulator accumulator = new SchemeAccumulator(null);
+		accumulator.addAll(source);
+		return accumulator.build();
+	}
+
+	/**
+	 * Same as {@link #getScheme(JsonSource)}, but collects detailed scheme like {@link #getDetailedScheme(List, SchemeOptions)}.
+	 * Values are read straight from the source, without building JsonElements. Sampling settings of the options are not used.
+	 */
+	public static JsonScheme getDetailedScheme(JsonSource source, SchemeOptions options) {
+		SchemeAccumulator accumulator = new SchemeAccumulator(options);
+		accumulator.addAll(source);
+		return accumulator.build();
+	}
+
+	/**
+	 * Same as getScheme(e).moreInfo(e), but all the information is collected in a single pass over the Json,
+	 * instead of re-evaluating every Path against the document.
+	 */
+	public static JsonScheme getDetailedScheme(JsonElement e) {
+		return getDetailedScheme(Collections.singletonList(e), new SchemeOptions());
+	}
+
+	/** Same as {@link #getDetailedScheme(JsonElement)} with options of how information is collected **/
+	public static JsonScheme getDetailedScheme(JsonElement e, SchemeOptions options) {
+		return getDetailedScheme(Collections.singletonList(e), options);
+	}
+
+	/** Same as getScheme(jsonRoots).moreInfo(jsonRoots), but all the information is collected in a single pass **/
+	public static JsonScheme getDetailedScheme(List<JsonElement> jsonRoots) {
+		return getDetailedScheme(jsonRoots, new SchemeOptions());
+	}
+
+	/** Same as {@link #getDetailedScheme(List)} with options of how information is collected **/
+	public static JsonScheme getDetailedScheme(List<JsonElement> jsonRoots, SchemeOptions options) {
+		return getScheme(jsonRoots, options, true);
+	}
+
+	/**
+	 * Same as {@link #getScheme(List)}, but documents and array elements can be sampled to save time on big lists.
+	 * Only sampling settings of the options are used, see {@link SchemeOptions#sampleDocuments(int)}
+	 * and {@link SchemeOptions#sampleArrayElements(int)}.
+	 */
+	public static JsonScheme getScheme(List<JsonElement> jsonRoots, SchemeOptions options) {
+		return getScheme(jsonRoots, options, false);
+	}
+
+	private static JsonScheme getScheme(List<JsonElement> jsonRoots, SchemeOptions options, boolean detailed) {
+		SplittableRandom random = new SplittableRandom(options.getSamplingSeed());
+		List<JsonElement> sample = Sampling.documents(jsonRoots, options.getSampleDocuments(), random);
+		double weight = sample.isEmpty() ? 1 : jsonRoots.size() / (double) sample.size();
+		SchemeAccumulator accumulator = new SchemeAccumulator(detailed ? options : null);
+		accumulator.sampleArrays(options.getSampleArrayElements(), random.nextLong());
+		for (JsonElement json : sample) {
+			accumulator.add(json, weight);
 		}
+		return accumulator.build();
+	}
 
-		return new JsonScheme(map);
+	/** Same as {@link #getScheme(List)}, but jsons are split between threads of common {@link ForkJoinPool} **/
+	public static JsonScheme getSchemeParallel(List<JsonElement> jsonRoots) {
+		return getSchemeParallel(jsonRoots, ForkJoinPool.commonPool());
 	}
 
-	/** Schema of the Json tree **/
-	public static JsonScheme getScheme(JsonElement e) {
-		Map<Path, BaseElementInfo> map = new LinkedHashMap<>();
-		getScheme(map, new Path(), e);
+	/** Same as {@link #getScheme(List)}, but jsons are split between threads of the pool **/
+	public static JsonScheme getSchemeParallel(List<JsonElement> jsonRoots, ForkJoinPool pool) {
+		return pool.invoke(new SchemeTask(asRandomAccess(jsonRoots), 0, jsonRoots.size(), null, 1)).build();
+	}
 
-		for (Map.Entry<Path, BaseElementInfo> entry : map.entrySet()) {
-			List<JsonElement> values = entry.getKey().get(e, false);
-			for (JsonElement value : values) {
-				if (value == null || value.isJsonNull()){
-					entry.getValue().canBeNull = true;
-					break;
-				}
+	/** Same as {@link #getDetailedScheme(List)}, but jsons are split between threads of common {@link ForkJoinPool} **/
+	public static JsonScheme getDetailedSchemeParallel(List<JsonElement> jsonRoots) {
+		return getDetailedSchemeParallel(jsonRoots, ForkJoinPool.commonPool());
+	}
+
+	/** Same as {@link #getDetailedScheme(List)}, but jsons are split between threads of the pool **/
+	public static JsonScheme getDetailedSchemeParallel(List<JsonElement> jsonRoots, ForkJoinPool pool) {
+		return getDetailedSchemeParallel(jsonRoots, pool, new SchemeOptions());
+	}
+
+	/** Same as {@link #getDetailedScheme(List, SchemeOptions)}, but jsons are split between threads of the pool **/
+	public static JsonScheme getDetailedSchemeParallel(List<JsonElement> jsonRoots, ForkJoinPool pool, SchemeOptions options) {
+		List<JsonElement> sample = Sampling.documents(jsonRoots, options.getSampleDocuments(), new SplittableRandom(options.getSamplingSeed()));
+		double weight = sample.isEmpty() ? 1 : jsonRoots.size() / (double) sample.size();
+		return pool.invoke(new SchemeTask(asRandomAccess(sample), 0, sample.size(), options, weight)).build();
+	}
+
+	/**
+	 * Schema of newline-delimited Json file (one Json document per line). Same as reading every line and calling
+	 * {@link #getScheme(List)}, but documents are never collected in memory: file is memory-mapped,
+	 * split into line-aligned chunks which are read by threads of common {@link ForkJoinPool}, and their schemes are merged.
+	 * @throws JsonSyntaxException if some line is malformed
+	 * @throws JsonIOException if reading failed
+	 */
+	public static JsonScheme fromNdjson(java.nio.file.Path file) {
+		return fromNdjson(file, ForkJoinPool.commonPool());
+	}
+
+	/** Same as {@link #fromNdjson(java.nio.file.Path)}, but file is read by threads of the pool **/
+	public static JsonScheme fromNdjson(java.nio.file.Path file, ForkJoinPool pool) {
+		return fromNdjson(file, pool, null);
+	}
+
+	/** Same as {@link #fromNdjson(java.nio.file.Path)}, but collects detailed scheme like {@link #getDetailedScheme(List)} **/
+	public static JsonScheme detailedFromNdjson(java.nio.file.Path file) {
+		return detailedFromNdjson(file, ForkJoinPool.commonPool(), new SchemeOptions());
+	}
+
+	/** Same as {@link #detailedFromNdjson(java.nio.file.Path)} with options of how information is collected, file is read by threads of the pool **/
+	public static JsonScheme detailedFromNdjson(java.nio.file.Path file, ForkJoinPool pool, SchemeOptions options) {
+		return fromNdjson(file, pool, options);
+	}
+
+	private static JsonScheme fromNdjson(java.nio.file.Path file, ForkJoinPool pool, SchemeOptions options) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return pool.invoke(NdjsonTask.of(channel, pool.getParallelism(), options)).build();
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+	/**
+	 * Combines schemes of different parts of the data, for example collected on different machines and read with {@link #readFrom(InputStream)}.
+	 * Result is the same as if the scheme was collected from all the data at once. Given schemes are not changed.
+	 * If schemes were filled with {@link #moreInfo(List)}, elements that were missing from some parts are counted
+	 * the way {@link #getDetailedScheme(List)} counts them.
+	 * @throws IllegalArgumentException if some schemes are detailed and some are not
+	 */
+	public static JsonScheme merge(JsonScheme... schemes) {
+		return merge(Arrays.asList(schemes));
+	}
+
+	/** @see #merge(JsonScheme...) **/
+	public static JsonScheme merge(Collection<JsonScheme> schemes) {
+		if (schemes.isEmpty()) throw new IllegalArgumentException("Nothing to merge");
+		boolean detailed = schemes.iterator().next().upgraded;
+		for (JsonScheme scheme : schemes) {
+			if (scheme.upgraded != detailed) {
+				throw new IllegalArgumentException("Can't merge detailed and basic schemes together");
 			}
 		}
-		return new JsonScheme(map);
+		SchemeAccumulator accumulator = new SchemeAccumulator(detailed ? new SchemeOptions() : null);
+		for (JsonScheme scheme : schemes) {
+			accumulator.merge(scheme);
+		}
+		return accumulator.build();
 	}
 
-	/** Schema of the Json tree **/
-	private static void getScheme(Map<Path, BaseElementInfo> map, Path path, JsonElement e) {
-		if (e.isJsonObject()){
-			Set<String> keys = e.getAsJsonObject().keySet();
-			for (String key : keys) {
-				final Path elementPath = path.child(key);
-				final JsonElement val = e.getAsJsonObject().get(key);
-				BaseElementInfo elementInfo = map.get(elementPath);
-				if (elementInfo == null){
-					elementInfo = new BaseElementInfo(val);
-					map.put(elementPath, elementInfo);
-				} else {
-					elementInfo.update(val);
-				}
-				if (val == null || val.isJsonNull()){
-					elementInfo.update(val);
-				} else if (val.isJsonObject()) {
-					getScheme(map, elementPath, val);
-				} else if (val.isJsonArray()) {
-					getScheme(map, elementPath, val);
-				} else if (val.isJsonPrimitive()) {
-					elementInfo.update(val);
+	/**
+	 * Compiles this scheme into a validator of Json documents, which reports fields and types that are not in this scheme,
+	 * unexpected nulls, missing fields and array lengths out of range.
+	 * Validator doesn't depend on this scheme, changes of the scheme are not visible to it.
+	 */
+	public SchemeValidator compileValidator() {
+		return new SchemeValidator(this);
+	}
+
+	/**
+	 * Writes this scheme in compact binary form, with all the information collected, including sketches.
+	 * Can be read back with {@link #readFrom(InputStream)}. Stream is not closed.
+	 * @throws JsonIOException if writing failed
+	 */
+	public void writeTo(OutputStream out) {
+		try {
+			SchemeIO.write(this, out);
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+	/**
+	 * Reads scheme that was written with {@link #writeTo(OutputStream)}.
+	 * Input is buffered, so stream might be read past the end of the scheme. Stream is not closed.
+	 * @throws JsonIOException if reading failed or stream doesn't contain JsonScheme of supported version
+	 */
+	public static JsonScheme readFrom(InputStream in) {
+		try {
+			return SchemeIO.read(in);
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+	private static List<JsonElement> asRandomAccess(List<JsonElement> list) {
+		return list instanceof RandomAccess ? list : new ArrayList<>(list);
+	}
+
+	/** Splits list of jsons in halves until they are small enough to be processed by a single thread **/
+	private static class SchemeTask extends RecursiveTask<SchemeAccumulator> {
+
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 256;
+
+		private final List<JsonElement> jsons;
+		private final int from;
+		private final int to;
+		private final SchemeOptions options;
+		/** Amount of documents that every one of jsons represents **/
+		private final double weight;
+
+		SchemeTask(List<JsonElement> jsons, int from, int to, SchemeOptions options, double weight) {
+			this.jsons = jsons;
+			this.from = from;
+			this.to = to;
+			this.options = options;
+			this.weight = weight;
+		}
+
+		@Override
+		protected SchemeAccumulator compute() {
+			if (to - from <= THRESHOLD) {
+				SchemeAccumulator accumulator = new SchemeAccumulator(options);
+				if (options != null) {
+					accumulator.sampleArrays(options.getSampleArrayElements(), options.getSamplingSeed() + from);
 				}
-			}
-		} else {
-			path = path.child("*");
-			BaseElementInfo info = map.get(path);
-			if (info == null){
-				info = new BaseElementInfo(null);
-				map.put(path, info);
-			}
-			for (JsonElement jsonElement : e.getAsJsonArray()) {
-				if (jsonElement == null || jsonElement.isJsonNull()){
-					info.update(jsonElement);
-				} else if (jsonElement.isJsonObject()) {
-					info.update(jsonElement);
-					getScheme(map, path, jsonElement);
-				} else if (jsonElement.isJsonArray()) {
-					info.update(jsonElement);
-					getScheme(map, path, jsonElement);
-				} else if (jsonElement.isJsonPrimitive()) {
-					info.update(jsonElement);
+				for (int i = from; i < to; i++) {
+					accumulator.add(jsons.get(i), weight);
 				}
+				return accumulator;
 			}
-
+			int middle = (from + to) >>> 1;
+			SchemeTask left = new SchemeTask(jsons, from, middle, options, weight);
+			SchemeTask right = new SchemeTask(jsons, middle, to, options, weight);
+			left.fork();
+			SchemeAccumulator rightResult = right.compute();
+			SchemeAccumulator leftResult = left.join();
+			leftResult.merge(rightResult);
+			return leftResult;
 		}
 	}
 
@@ -194,20 +467,25 @@ public class JsonScheme {
 	}
 
 	private int maxPathLength() {
-		Path longestPath = null;
 		int length = 0;
-		for (Path path : map.keySet()) {
-			int l = getOffset(path) + path.last().length() / 2;
-			if (l > length) {
-				length = l;
-				longestPath = path;
-			}
+		for (SchemeNode node : getRoot().children()) {
+			length = Math.max(length, maxPathLength(node));
+		}
+		return (length == 0 ? 1 : length) + 2;
+	}
+
+	private int maxPathLength(SchemeNode node) {
+		int length = node.offset + node.getPath().last().length() / 2;
+		for (SchemeNode child : node.children()) {
+			length = Math.max(length, maxPathLength(child));
 		}
-		return (longestPath == null ? 1 : length) + 2;
+		return length;
 	}
 
 	@Override
 	public String toString() {
+		SchemeMetrics metrics = JsonScheme.metrics;
+		long start = metrics != SchemeMetrics.NONE ? System.nanoTime() : 0;
 		StringBuilder sb = new StringBuilder();
 		int padding = maxPathLengthBasic() + 3;
 
@@ -217,85 +495,77 @@ public class JsonScheme {
 					.append(e.getValue())
 					.append('\n');
 		}
+		if (metrics != SchemeMetrics.NONE) {
+			metrics.phase(SchemeMetrics.Phase.RENDER, System.nanoTime() - start);
+		}
 		return sb.toString();
 	}
 
 	public String toStringTree() {
+		SchemeMetrics metrics = JsonScheme.metrics;
+		long start = metrics != SchemeMetrics.NONE ? System.nanoTime() : 0;
 		StringBuilder sb = new StringBuilder();
 		int padding = maxPathLength() + 3;
-		Set<Path> paths = map.keySet();
-		for (Path path : paths) {
-			if (path.depth() == 1) {
-				toStringTree(sb, path, padding);
-			}
+		for (SchemeNode node : getRoot().children()) {
+			toStringTree(sb, node, padding);
+		}
+		if (metrics != SchemeMetrics.NONE) {
+			metrics.phase(SchemeMetrics.Phase.RENDER, System.nanoTime() - start);
 		}
 		return sb.toString();
 	}
 
-	private void toStringTree(StringBuilder sb, Path root, int padding) {
-		sb.append(Utils.rightPad(root.toString(), padding, ' '))
+	private void toStringTree(StringBuilder sb, SchemeNode root, int padding) {
+		sb.append(Utils.rightPad(root.getPath().toString(), padding, ' '))
 				.append("-> ")
-				.append(map.get(root))
+				.append(root.getInfo())
 				.append('\n');
 
-		List<Path> tracers = new ArrayList<>();
+		appendChildren(sb, root, padding, new int[root.getPath().depth() + 1], 0);
+	}
 
-		List<Path> children = getDirectChildren(root);
-		if (!children.isEmpty()){
-			tracers.add(root);
-			for (int i = 0; i < children.size() - 1; i++) {
-				append(sb, root, children.get(i), padding, tracers); //With tracing of this parent
+	/**
+	 * @param tracers offsets of the ancestors whose children are not finished yet, so their lines have to continue
+	 * @param tracerCount amount of tracers in use
+	 */
+	private void appendChildren(StringBuilder sb, SchemeNode parent, int globalPadding, int[] tracers, int tracerCount){
+		List<SchemeNode> children = parent.children();
+		for (int i = 0; i < children.size(); i++) {
+			boolean last = i == children.size() - 1;
+			if (!last) {
+				tracers = push(tracers, tracerCount, parent.offset); //With tracing of this parent
 			}
-			tracers.remove(root);
-			append(sb, root, children.get(children.size() - 1), padding, tracers); //Without tracing of this parent for the kids any more
+			append(sb, parent, children.get(i), globalPadding, tracers, last ? tracerCount : tracerCount + 1);
 		}
 	}
 
-	private void append(StringBuilder sb, Path parent, Path child, int globalPadding, List<Path> tracers){
-		int offset = getOffset(parent);
+	private void append(StringBuilder sb, SchemeNode parent, SchemeNode child, int globalPadding, int[] tracers, int tracerCount){
+		int offset = parent.offset;
 		int padding = globalPadding - offset - 2;
-		BaseElementInfo info = map.get(child);
 
 		int start = sb.length();
 		sb.append(Utils.repeat(' ', offset));
-		markTracers(sb, start, tracers, parent);
-
-		sb.append("-")
-				.append(Utils.rightPad(child.last(), padding, ' '))
-				.append("-> ")
-				.append(info)
-				.append('\n');
-
-		List<Path> children = getDirectChildren(child);
-
-		if (!children.isEmpty()){
-			tracers.add(child);
-			for (int i = 0; i < children.size() - 1; i++) {
-				append(sb, child, children.get(i), globalPadding, tracers); //With tracing of this parent
+		for (int i = 0; i < tracerCount; i++) {
+			if (tracers[i] < offset) { //Parent itself is marked right below
+				sb.setCharAt(start + tracers[i], '|');
 			}
-			tracers.remove(child);
-			append(sb, child, children.get(children.size() - 1), globalPadding, tracers); //Without tracing of this parent
 		}
-	}
 
-	private void markTracers(StringBuilder sb, int start, List<Path> tracers, Path parent) {
-		for (Path tracer : tracers) {
-			markTracer(sb, start, tracer);
-		}
-		markTracer(sb, start, parent);
-	}
+		sb.append("|-")
+				.append(Utils.rightPad(child.getPath().last(), padding, ' '))
+				.append("-> ")
+				.append(child.getInfo())
+				.append('\n');
 
-	private void markTracer(StringBuilder sb, int start, Path tracer) {
-		int pos = start + getOffset(tracer);
-		sb.replace(pos, pos + 1, "|");
+		appendChildren(sb, child, globalPadding, tracers, tracerCount);
 	}
 
-	private int getOffset(Path parent) {
-		int parentLength = 0;
-		for (String s : parent.path) {
-			parentLength += (Path.isAnySign(s) ? s.length() + 1 : s.length() / 2 + (s.length() % 2) + 1);
+	private static int[] push(int[] tracers, int count, int offset) {
+		if (count == tracers.length) {
+			tracers = Arrays.copyOf(tracers, tracers.length * 2 + 1);
 		}
-		return parentLength;
+		tracers[count] = offset;
+		return tracers;
 	}
 
 	private int stringLengthIgnoreAll(Path path){
@@ -0,0 +1,120 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Long-lived accumulator of JsonScheme. Jsons are fed one by one as they come,
+ * so there is no need to keep them all in memory, and scheme of everything seen so far can be taken at any moment.
+ * Every Json costs time proportional to its own size. Safe to use from multiple threads.
+ * <pre>
+ * JsonSchemeBuilder builder = new JsonSchemeBuilder(new SchemeOptions().topStrings(100));
+ * for (JsonElement request : requests) {
+ *     builder.accept(request);
+ * }
+ * System.out.println(builder.snapshot().toStringTree());
+ * </pre>
+ */
+public class JsonSchemeBuilder {
+
+	private final SchemeAccumulator accumulator;
+	private long documentCount;
+
+	/** Collects only the structure, same as {@link JsonScheme#getScheme(java.util.List)} **/
+	public JsonSchemeBuilder() {
+		accumulator = new SchemeAccumulator(null);
+	}
+
+	/** Collects structure and more information about elements, same as {@link JsonScheme#getDetailedScheme(java.util.List, SchemeOptions)} **/
+	public JsonSchemeBuilder(SchemeOptions options) {
+		if (options == null) throw new NullPointerException("options");
+		accumulator = new SchemeAccumulator(options);
+	}
+
+	/** Adds Json to the scheme **/
+	public synchronized JsonSchemeBuilder accept(JsonElement json) {
+		accumulator.add(json);
+		documentCount++;
+		return this;
+	}
+
+	/**
+	 * Adds Json that is read from the stream. Json is read whole before it's added,
+	 * so malformed Json doesn't change the scheme, and the lock is held only while the read Json is added.
+	 * Reader is not closed.
+	 * @throws JsonSyntaxException if Json is malformed
+	 * @throws JsonIOException if reading failed
+	 */
+	public JsonSchemeBuilder accept(Reader reader) {
+		JsonReader jsonReader = new JsonReader(reader);
+		jsonReader.setLenient(true);
+		try {
+			JsonSource source = JsonSource.of(jsonReader);
+			JsonElement json = read(source);
+			if (source.peek() != JsonSource.Token.END_DOCUMENT) {
+				throw new JsonSyntaxException("Did not consume the entire document.");
+			}
+			return accept(json);
+		} catch (MalformedJsonException e) {
+			throw new JsonSyntaxException(e);
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+	/**
+	 * Adds every Json document of the source one after another. Same as in {@link #accept(Reader)}, every document is read whole before it's added,
+	 * so if one of them is malformed, documents before it stay added and counted, and the malformed one is not.
+	 * @throws JsonSyntaxException if Json is malformed
+	 * @throws JsonIOException if reading failed
+	 */
+	public JsonSchemeBuilder accept(JsonSource source) {
+		try {
+			while (source.peek() != JsonSource.Token.END_DOCUMENT) {
+				accept(read(source));
+			}
+		} catch (MalformedJsonException e) {
+			throw new JsonSyntaxException(e);
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+		return this;
+	}
+
+	/** Same as {@link #accept(Reader)}. Stream is expected to be in UTF-8 and is not closed **/
+	public JsonSchemeBuilder accept(InputStream in) {
+		return accept(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	/** Next Json document of the source. Root must be JsonObject or JsonArray, same as in {@link SchemeAccumulator#add(JsonSource)} **/
+	private static JsonElement read(JsonSource source) throws IOException {
+		JsonSource.Token token = source.peek();
+		if (token != JsonSource.Token.BEGIN_OBJECT && token != JsonSource.Token.BEGIN_ARRAY) {
+			throw new IllegalStateException("Root element must be JsonObject or JsonArray, but was " + token);
+		}
+		return PathMatcher.read(source);
+	}
+
+	/** Amount of Jsons accepted so far **/
+	public synchronized long getDocumentCount() {
+		return documentCount;
+	}
+
+	/**
+	 * Scheme of all Jsons accepted so far. Snapshot is a deep copy,
+	 * so it doesn't change when more Jsons are accepted and builder can be used further.
+	 * Costs time proportional to the size of the scheme.
+	 */
+	public synchronized JsonScheme snapshot() {
+		return accumulator.copy().build();
+	}
+}
@@ -0,0 +1,80 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+
+/**
+ * Stream of Json tokens that schemes can be collected from, so Json doesn't have to be parsed into Gson's JsonElement first.
+ * Works the same way as Gson's {@link JsonReader}: {@link #peek()} tells what comes next and the other methods consume it.
+ * Source can contain many Json documents one after another, like newline-delimited Json.
+ * <p>
+ * Sources:
+ * <li>{@link #of(JsonReader)} - Gson's reader</li>
+ * <li>{@link #of(byte[])} - UTF-8 bytes, read without Gson at all. Keys that were met before are not decoded again</li>
+ * <li>{@link JacksonSource} - Jackson's JsonParser or tree, if Jackson is on the classpath</li>
+ */
+public interface JsonSource {
+
+	enum Token {
+		BEGIN_OBJECT,
+		END_OBJECT,
+		BEGIN_ARRAY,
+		END_ARRAY,
+		NAME,
+		STRING,
+		NUMBER,
+		BOOLEAN,
+		NULL,
+		/** There are no more tokens in the source **/
+		END_DOCUMENT
+	}
+
+	/** Type of the next token without consuming it **/
+	Token peek() throws IOException;
+
+	void beginObject() throws IOException;
+
+	void endObject() throws IOException;
+
+	void beginArray() throws IOException;
+
+	void endArray() throws IOException;
+
+	/** Whether or not current object or array has more elements **/
+	boolean hasNext() throws IOException;
+
+	String nextName() throws IOException;
+
+	/** Value of string, or number as it's written **/
+	String nextString() throws IOException;
+
+	double nextDouble() throws IOException;
+
+	boolean nextBoolean() throws IOException;
+
+	void nextNull() throws IOException;
+
+	/** Skips the next value, with all of its contents if it's an object or an array **/
+	void skipValue() throws IOException;
+
+	/** Where the source is now. For error messages **/
+	String getLocation();
+
+	static JsonSource of(JsonReader reader) {
+		return new GsonSource(reader);
+	}
+
+	/** UTF-8 encoded Json. Array is not copied and must not be changed while it's read **/
+	static JsonSource of(byte[] utf8) {
+		return new Utf8Source(utf8, 0, utf8.length);
+	}
+
+	/** Part of the array with UTF-8 encoded Json. Array is not copied and must not be changed while it's read **/
+	static JsonSource of(byte[] utf8, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > utf8.length) {
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + utf8.length);
+		}
+		return new Utf8Source(utf8, offset, offset + length);
+	}
+}
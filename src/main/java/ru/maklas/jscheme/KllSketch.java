@@ -0,0 +1,202 @@
+package ru.maklas.jscheme;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * KLL quantile sketch of doubles (Karnin, Lang, Liberty).
+ * Values are kept in levels of compactors. When a level is full, it's sorted and every other value moves one level up,
+ * doubling its weight. Lower levels get smaller capacities, so memory stays about 3 * k values.
+ * Rank error is about 1.65 / k. Sketches can be merged.
+ */
+class KllSketch {
+
+	private static final double CAPACITY_DECAY = 2.0 / 3.0;
+
+	private final int k;
+	private final List<double[]> levels = new ArrayList<>();
+	private int[] sizes = new int[0];
+	/** Capacity of every level. Depends on the amount of levels, so it's recalculated when a level is added **/
+	private int[] capacities = new int[0];
+	/** Amount of values in all levels **/
+	private int size;
+	/** Sum of capacities. Levels are compressed when size reaches it **/
+	private int maxSize;
+	private long count;
+	private long random = 0x9E3779B97F4A7C15L;
+
+	KllSketch(int k) {
+		if (k < 8) throw new IllegalArgumentException("k must be at least 8: " + k);
+		this.k = k;
+		addLevel();
+	}
+
+	int k() {
+		return k;
+	}
+
+	long count() {
+		return count;
+	}
+
+	void add(double value) {
+		push(0, value);
+		count++;
+		if (size >= maxSize) {
+			compress();
+		}
+	}
+
+	void merge(KllSketch other) {
+		while (levels.size() < other.levels.size()) {
+			addLevel();
+		}
+		for (int h = 0; h < other.levels.size(); h++) {
+			double[] level = other.levels.get(h);
+			for (int i = 0; i < other.sizes[h]; i++) {
+				push(h, level[i]);
+			}
+		}
+		count += other.count;
+		while (size >= maxSize) {
+			compress();
+		}
+	}
+
+	/**
+	 * Estimated value at the rank q.
+	 * @param q from 0 to 1. 0.5 is median
+	 * @return NaN if sketch is empty
+	 */
+	double quantile(double q) {
+		if (q < 0 || q > 1) throw new IllegalArgumentException("Quantile must be in range 0..1: " + q);
+		int size = this.size;
+		if (size == 0) return Double.NaN;
+		double[] values = new double[size];
+		long[] weights = new long[size];
+		int n = 0;
+		for (int h = 0; h < levels.size(); h++) {
+			double[] level = levels.get(h);
+			for (int i = 0; i < sizes[h]; i++) {
+				values[n] = level[i];
+				weights[n] = 1L << h;
+				n++;
+			}
+		}
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+		long totalWeight = 0;
+		for (long weight : weights) {
+			totalWeight += weight;
+		}
+		double target = q * totalWeight;
+		long cumulative = 0;
+		for (Integer i : order) {
+			cumulative += weights[i];
+			if (cumulative >= target) {
+				return values[i];
+			}
+		}
+		return values[order[size - 1]];
+	}
+
+	void write(SchemeIO.Output out) throws IOException {
+		out.writeVarInt(k);
+		out.writeVarLong(count);
+		out.writeLong(random);
+		out.writeVarInt(levels.size());
+		for (int h = 0; h < levels.size(); h++) {
+			double[] level = levels.get(h);
+			out.writeVarInt(sizes[h]);
+			for (int i = 0; i < sizes[h]; i++) {
+				out.writeDouble(level[i]);
+			}
+		}
+	}
+
+	static KllSketch read(SchemeIO.Input in) throws IOException {
+		int k = in.readVarInt();
+		if (k < 8) throw new IOException("Malformed sketch: k = " + k);
+		KllSketch sketch = new KllSketch(k);
+		sketch.count = in.readVarLong();
+		sketch.random = in.readLong();
+		int levels = in.readVarInt();
+		while (sketch.levels.size() < levels) {
+			sketch.addLevel();
+		}
+		for (int h = 0; h < levels; h++) {
+			int size = in.readVarInt();
+			for (int i = 0; i < size; i++) {
+				sketch.push(h, in.readDouble());
+			}
+		}
+		return sketch;
+	}
+
+	private void compress() {
+		for (int h = 0; h < levels.size(); h++) {
+			if (sizes[h] >= capacities[h]) {
+				if (h + 1 == levels.size()) {
+					addLevel();
+				}
+				double[] level = levels.get(h);
+				int size = sizes[h];
+				Arrays.sort(level, 0, size);
+				int pairs = size & ~1;
+				for (int i = nextBit(); i < pairs; i += 2) {
+					push(h + 1, level[i]);
+				}
+				this.size -= size;
+				if ((size & 1) == 1) {
+					level[0] = level[size - 1];
+					sizes[h] = 1;
+					this.size++;
+				} else {
+					sizes[h] = 0;
+				}
+				if (this.size < maxSize) {
+					return;
+				}
+			}
+		}
+	}
+
+	private int capacity(int h) {
+		int depth = levels.size() - h - 1;
+		return Math.max(2, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+	}
+
+	private void push(int h, double value) {
+		double[] level = levels.get(h);
+		if (sizes[h] == level.length) {
+			level = Arrays.copyOf(level, level.length * 2);
+			levels.set(h, level);
+		}
+		level[sizes[h]++] = value;
+		size++;
+	}
+
+	private void addLevel() {
+		levels.add(new double[8]);
+		sizes = Arrays.copyOf(sizes, levels.size());
+		capacities = new int[levels.size()];
+		maxSize = 0;
+		for (int h = 0; h < levels.size(); h++) {
+			capacities[h] = capacity(h);
+			maxSize += capacities[h];
+		}
+	}
+
+	/** Cheap xorshift coin. Which half of the pairs survives compaction must be random to keep estimates unbiased **/
+	private int nextBit() {
+		random ^= random << 13;
+		random ^= random >>> 7;
+		random ^= random << 17;
+		return (int) (random & 1);
+	}
+}
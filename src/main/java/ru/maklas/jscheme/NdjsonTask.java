@@ -0,0 +1,144 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Collects scheme of newline-delimited Json file. File is split into line-aligned chunks,
+ * every chunk is memory-mapped and read by its own thread, partial schemes are merged in the order of chunks.
+ * Documents are read from the mapped chunks one by one, so the file is never loaded in heap.
+ */
+class NdjsonTask extends RecursiveTask<SchemeAccumulator> {
+
+	private static final long serialVersionUID = 1L;
+	private static final long MIN_CHUNK = 1 << 20;
+	private static final long MAX_CHUNK = 64 << 20;
+
+	private final FileChannel channel;
+	/** Start and end of every chunk in bytes **/
+	private final long[] bounds;
+	private final int from;
+	private final int to;
+	private final SchemeOptions options;
+
+	private NdjsonTask(FileChannel channel, long[] bounds, int from, int to, SchemeOptions options) {
+		this.channel = channel;
+		this.bounds = bounds;
+		this.from = from;
+		this.to = to;
+		this.options = options;
+	}
+
+	/**
+	 * @param parallelism amount of threads. File is split into a few chunks per thread, so that threads are evenly loaded
+	 * @param options options of {@link ExtendedElementInfo}. Null to collect only {@link BaseElementInfo}
+	 */
+	static NdjsonTask of(FileChannel channel, int parallelism, SchemeOptions options) throws IOException {
+		long size = channel.size();
+		long chunkSize = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size / (parallelism * 4L)));
+		List<Long> bounds = new ArrayList<>();
+		bounds.add(0L);
+		long start = 0;
+		while (start < size) {
+			long end = nextLine(channel, Math.min(size, start + chunkSize), size);
+			if (end - start > Integer.MAX_VALUE) {
+				throw new JsonIOException("Line at " + start + " is too long to be mapped");
+			}
+			bounds.add(end);
+			start = end;
+		}
+		long[] array = new long[bounds.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = bounds.get(i);
+		}
+		return new NdjsonTask(channel, array, 0, array.length - 1, options);
+	}
+
+	/** Position right after the first line break at or after position. Size of the file if there is none **/
+	private static long nextLine(FileChannel channel, long position, long size) throws IOException {
+		if (position == size) return size;
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		while (position < size) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read < 0) break;
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	@Override
+	protected SchemeAccumulator compute() {
+		if (to - from <= 1) {
+			SchemeAccumulator accumulator = new SchemeAccumulator(options);
+			if (to > from) {
+				readChunk(accumulator, bounds[from], bounds[to]);
+			}
+			return accumulator;
+		}
+		int middle = (from + to) >>> 1;
+		NdjsonTask left = new NdjsonTask(channel, bounds, from, middle, options);
+		NdjsonTask right = new NdjsonTask(channel, bounds, middle, to, options);
+		left.fork();
+		SchemeAccumulator rightResult = right.compute();
+		SchemeAccumulator leftResult = left.join();
+		leftResult.merge(rightResult);
+		return leftResult;
+	}
+
+	private void readChunk(SchemeAccumulator accumulator, long start, long end) {
+		try {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			JsonReader reader = new JsonReader(new InputStreamReader(new ByteBufferInputStream(buffer), StandardCharsets.UTF_8));
+			reader.setLenient(true);
+			accumulator.addAll(JsonSource.of(reader));
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+	/** Reads mapped bytes without copying them into heap first **/
+	private static final class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0) return 0;
+			if (!buffer.hasRemaining()) return -1;
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package ru.maklas.jscheme;
+
+import java.io.IOException;
+
+/**
+ * Statistics of numbers found by a single path. Takes constant memory no matter how many numbers there were.
+ * Mean and variance are computed with Welford's online algorithm, so they stay precise over billions of values.
+ * Quantiles are estimated if enabled with {@link SchemeOptions#numberQuantiles(int)}.
+ */
+public class NumberStats {
+
+	private long count;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	private double mean;
+	/** Sum of squared differences from the mean **/
+	private double m2;
+	private KllSketch quantiles;
+
+	NumberStats(int quantilesK) {
+		if (quantilesK > 0) {
+			quantiles = new KllSketch(quantilesK);
+		}
+	}
+
+	void add(double value) {
+		count++;
+		if (value < min) min = value;
+		if (value > max) max = value;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		if (quantiles != null) {
+			quantiles.add(value);
+		}
+	}
+
+	void merge(NumberStats other) {
+		if (other.quantiles != null) {
+			if (quantiles == null) {
+				quantiles = new KllSketch(other.quantiles.k());
+			}
+			quantiles.merge(other.quantiles);
+		}
+		if (other.count == 0) return;
+		if (count == 0) {
+			count = other.count;
+			min = other.min;
+			max = other.max;
+			mean = other.mean;
+			m2 = other.m2;
+			return;
+		}
+		long total = count + other.count;
+		double delta = other.mean - mean;
+		mean += delta * other.count / total;
+		m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+		count = total;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	void write(SchemeIO.Output out) throws IOException {
+		out.writeVarLong(count);
+		out.writeDouble(min);
+		out.writeDouble(max);
+		out.writeDouble(mean);
+		out.writeDouble(m2);
+		out.writeBoolean(quantiles != null);
+		if (quantiles != null) {
+			quantiles.write(out);
+		}
+	}
+
+	static NumberStats read(SchemeIO.Input in) throws IOException {
+		NumberStats stats = new NumberStats(0);
+		stats.count = in.readVarLong();
+		stats.min = in.readDouble();
+		stats.max = in.readDouble();
+		stats.mean = in.readDouble();
+		stats.m2 = in.readDouble();
+		if (in.readBoolean()) {
+			stats.quantiles = KllSketch.read(in);
+		}
+		return stats;
+	}
+
+	/** Amount of numbers. If they were sampled, amount in the sample, see {@link ExtendedElementInfo#getNumberCount()} **/
+	public long getCount() {
+		return count;
+	}
+
+	/** NaN if there were no numbers **/
+	public double getMin() {
+		return count == 0 ? Double.NaN : min;
+	}
+
+	/** NaN if there were no numbers **/
+	public double getMax() {
+		return count == 0 ? Double.NaN : max;
+	}
+
+	/** NaN if there were no numbers **/
+	public double getMean() {
+		return count == 0 ? Double.NaN : mean;
+	}
+
+	/** Population variance. NaN if there were no numbers **/
+	public double getVariance() {
+		return count == 0 ? Double.NaN : m2 / count;
+	}
+
+	/** Population standard deviation. NaN if there were no numbers **/
+	public double getStdDev() {
+		return Math.sqrt(getVariance());
+	}
+
+	/** Whether or not quantiles are estimated **/
+	public boolean hasQuantiles() {
+		return quantiles != null;
+	}
+
+	/**
+	 * Estimated number at the rank q. For example 0.5 for median or 0.99 for 99th percentile.
+	 * @return NaN if there were no numbers or quantiles are not estimated
+	 */
+	public double getQuantile(double q) {
+		return quantiles == null ? Double.NaN : quantiles.quantile(q);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Avg: ").append(Utils.df(getMean()));
+		if (quantiles != null && count > 0) {
+			sb.append(" p50: ").append(Utils.df(getQuantile(0.5)))
+					.append(" p95: ").append(Utils.df(getQuantile(0.95)))
+					.append(" p99: ").append(Utils.df(getQuantile(0.99)));
+		}
+		return sb.toString();
+	}
+}
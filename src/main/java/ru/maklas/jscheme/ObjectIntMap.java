@@ -0,0 +1,130 @@
+package ru.maklas.jscheme;
+
+import java.util.Arrays;
+
+/**
+ * Counters of objects. Counter is found and incremented in place with a single lookup, without boxing.
+ * Entries are kept in parallel arrays in the order they were added and the open addressing table only holds their indices,
+ * so an entry takes about 20 bytes instead of about 50 of HashMap with Integer values,
+ * and entries are iterated by index in the order they were added. Entries can't be removed.
+ */
+final class ObjectIntMap<K> {
+
+	private Object[] keys;
+	private int[] values;
+	private int[] hashes;
+	/** Index of the entry + 1 in every slot, 0 for empty slots. Kept at most half full **/
+	private int[] table;
+	private int size;
+
+	ObjectIntMap() {
+		this(8);
+	}
+
+	ObjectIntMap(int expectedSize) {
+		int capacity = Math.max(expectedSize, 4);
+		keys = new Object[capacity];
+		values = new int[capacity];
+		hashes = new int[capacity];
+		table = new int[tableSize(capacity)];
+	}
+
+	/** Adds delta to the counter of the key. Counter of a new key starts from 0. Returns new value of the counter **/
+	int add(K key, int delta) {
+		int index = index(key, delta); //Массивы могут вырасти внутри index
+		return values[index];
+	}
+
+	/** Same as {@link #add}, but returns index of the entry of the key, so the map can also number distinct keys **/
+	int index(K key, int delta) {
+		int hash = hash(key);
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (true) {
+			int index = table[slot] - 1;
+			if (index < 0) break;
+			if (hashes[index] == hash && key.equals(keys[index])) {
+				values[index] += delta;
+				return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (size == keys.length) {
+			int capacity = size * 2;
+			keys = Arrays.copyOf(keys, capacity);
+			values = Arrays.copyOf(values, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+		}
+		keys[size] = key;
+		values[size] = delta;
+		hashes[size] = hash;
+		table[slot] = ++size;
+		if (size * 2 > table.length) {
+			rehash(table.length * 2);
+		}
+		return size - 1;
+	}
+
+	/** Counter of the key. 0 if there is no such key **/
+	int get(Object key) {
+		int hash = hash(key);
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (true) {
+			int index = table[slot] - 1;
+			if (index < 0) return 0;
+			if (hashes[index] == hash && key.equals(keys[index])) {
+				return values[index];
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	/** Key of the entry with this index. Entries are indexed in the order they were added **/
+	@SuppressWarnings("unchecked")
+	K keyAt(int index) {
+		return (K) keys[index];
+	}
+
+	int valueAt(int index) {
+		return values[index];
+	}
+
+	/** Adds counters of the other map **/
+	void addAll(ObjectIntMap<K> other) {
+		for (int i = 0; i < other.size; i++) {
+			add(other.keyAt(i), other.values[i]);
+		}
+	}
+
+	private void rehash(int tableSize) {
+		int[] table = new int[tableSize];
+		int mask = tableSize - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = hashes[i] & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = i + 1;
+		}
+		this.table = table;
+	}
+
+	/**
+	 * Mixes bits of the hash code, since only lower bits pick the slot. Similar strings often have consecutive hash codes,
+	 * which would otherwise take consecutive slots and make long runs of probes.
+	 */
+	private static int hash(Object key) {
+		int h = key.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/** Power of two that is at least twice the capacity **/
+	static int tableSize(int capacity) {
+		return Integer.highestOneBit(Math.max(capacity, 4) * 2 - 1) << 1;
+	}
+}
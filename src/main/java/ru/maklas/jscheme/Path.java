@@ -3,11 +3,17 @@ package ru.maklas.jscheme;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Represents path for Json elements.
@@ -19,13 +25,30 @@ import java.util.Objects;
  * <li><b>anArray/0</b> - first element of the array</li>
  * <li><b>anArray/*</b> - All elements of the array</li>
  * <li><b>rootElement/childArray/*<b>/</b>subElement/5/stringKey</b> - For all <b>childArray</b>s, get <b>subElement</b>'s fifth object and get value of <b>stringKey</b></li>
+ * <li><b>**<b>/</b>id</b> - <b>id</b> at any depth. ** is zero or more levels of anything</li>
+ * <li><b>anArray/1:5</b>, <b>anArray/[-2:]</b>, <b>anArray/::2</b> - slices of the array: start:end:step, negative are counted from the end</li>
+ * <li><b>orders/[?status=="ok"]/id</b> - children that are JsonObjects with field <b>status</b> equal to "ok".
+ * Also <b>!=</b>, numbers, true, false, null and <b>[?field]</b> for non-null field</li>
+ * <p>
+ * **, slices and predicates only work in paths created by {@link #parse(String)}.
+ * Paths created from keys with the constructor or {@link #child(String...)}, like paths of {@link JsonScheme}, only have keys, indices and *,
+ * so a key like "10:30" or "**" is just a key.
  */
 public class Path {
 
 	final String[] path;
+	/** Which segments are patterns: **, slices or predicates. Null if there are none **/
+	final boolean[] patterns;
+	private int hash;
+	private CompiledPath compiled;
 
 	public Path(String... path) {
-		this.path = Objects.requireNonNull(path);
+		this(Objects.requireNonNull(path), null);
+	}
+
+	private Path(String[] path, boolean[] patterns) {
+		this.path = path;
+		this.patterns = patterns;
 	}
 
 	/**
@@ -34,31 +57,82 @@ public class Path {
 	 */
 	public static Path parse(String s) {
 		s = Objects.requireNonNull(s).trim();
-		if (s.startsWith("[") && s.endsWith("]")){
+		if (s.startsWith("[") && s.indexOf(']') == s.length() - 1){
 			s = s.substring(1, s.length() - 1);
 		}
 		while (s.startsWith("/")) {
 			s = s.substring(1);
 		}
-		String[] paths = s.split("/");
+		String[] paths = split(s);
+		boolean[] patterns = null;
 		for (int i = 0; i < paths.length; i++) {
 			paths[i] = paths[i].trim();
+			if (CompiledPath.Step.isPattern(paths[i])) {
+				if (patterns == null) {
+					patterns = new boolean[paths.length];
+				}
+				patterns[i] = true;
+			}
+		}
+		return new Path(paths, patterns);
+	}
+
+	/** Same as s.split("/"), but slashes inside of quotes of predicates don't split **/
+	private static String[] split(String s) {
+		if (s.indexOf('"') < 0 && s.indexOf('\'') < 0) {
+			return s.split("/");
+		}
+		List<String> parts = new ArrayList<>();
+		char quote = 0;
+		int start = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (quote != 0) {
+				if (c == '\\') i++;
+				else if (c == quote) quote = 0;
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == '/') {
+				parts.add(s.substring(start, i));
+				start = i + 1;
+			}
+		}
+		parts.add(s.substring(start));
+		int size = parts.size();
+		while (size > 1 && parts.get(size - 1).isEmpty()) {
+			size--;
+		}
+		return parts.subList(0, size).toArray(new String[0]);
+	}
+
+	/**
+	 * Pre-parsed form of this path, which is faster to evaluate against many Jsons.
+	 * Created once and cached.
+	 */
+	public CompiledPath compile() {
+		CompiledPath compiled = this.compiled;
+		if (compiled == null) {
+			compiled = new CompiledPath(this);
+			this.compiled = compiled;
 		}
-		return new Path(paths);
+		return compiled;
 	}
 
 	@Override
 	public int hashCode() {
-		int hash = 0;
-		for (int i = 0; i < path.length; i++) {
-			hash = 31 * hash + path[i].hashCode();
+		int hash = this.hash;
+		if (hash == 0 && path.length != 0) {
+			for (int i = 0; i < path.length; i++) {
+				hash = 31 * hash + path[i].hashCode();
+			}
+			this.hash = hash;
 		}
 		return hash;
 	}
 
 	@Override
 	public boolean equals(Object obj) {
-		return obj instanceof Path && Arrays.equals(path, ((Path) obj).path);
+		return obj instanceof Path && Arrays.equals(path, ((Path) obj).path) && Arrays.equals(patterns, ((Path) obj).patterns);
 	}
 
 	/** @see #get(JsonElement, boolean) **/
@@ -70,110 +144,64 @@ public class Path {
 	 * Returns List of JsonElements that reside by this path inside this element
 	 * @param e where to apply path
 	 * @param removeNulls removes null values from output
+	 * @see CompiledPath#get(JsonElement, boolean)
 	 */
 	public List<JsonElement> get(JsonElement e, boolean removeNulls){
-		List<JsonElement> parents = new ArrayList<>();
-		List<JsonElement> children = new ArrayList<>();
-		parents.add(e);
-
-		for (int i = 0; i < path.length - 1; i++) {
-			String s = path[i].trim();
-			for (JsonElement parent : parents) {
-				if (parent == null || parent.isJsonNull()) {
-					continue;
-				}
+		return compile().get(e, removeNulls);
+	}
 
-				if (!parent.isJsonObject() && !parent.isJsonArray()){
-					throw new RuntimeException("Dead end " + parent.getClass().getSimpleName());
-				}
+	/** Same as {@link #get(JsonElement, boolean)}, but makes it easier to analyze lists of Json files **/
+	public List<JsonElement> get(List<JsonElement> elements, boolean removeNulls){
+		return compile().get(elements, removeNulls);
+	}
 
-				if (parent.isJsonObject()){
-					if (isAnySign(s)){
-						for (String key : parent.getAsJsonObject().keySet()) {
-							children.add(parent.getAsJsonObject().get(key));
-						}
-					} else {
-						children.add(parent.getAsJsonObject().get(s));
-					}
-				} else {
-					JsonArray arr = parent.getAsJsonArray();
-					if (isAnySign(s)){
-						for (JsonElement jsonElement : arr) {
-							children.add(jsonElement);
-						}
-					} else {
-						int index = Integer.parseInt(s);
-						if (index < arr.size()) {
-							children.add(arr.get(index));
-						}
-					}
-				}
-			}
-			if (children.size() == 0) return children;
-			parents.clear();
-			parents.addAll(children);
-			children.clear();
-		}
+	/** Passes every non-null JsonElement found by this path to the consumer. Doesn't create intermediate lists **/
+	public void forEach(JsonElement e, Consumer<JsonElement> consumer){
+		compile().forEach(e, true, consumer);
+	}
 
-		String lastPath = path[path.length - 1].trim();
-		if (removeNulls){
-			for (JsonElement parent : parents) {
-				if (parent == null || parent.isJsonNull()) continue;
-				if (parent.isJsonArray()) {
-					JsonArray arr = parent.getAsJsonArray();
-					if (isAnySign(lastPath)) {
-						for (JsonElement jsonElement : arr) {
-							if (jsonElement != null && !jsonElement.isJsonNull()) {
-								children.add(jsonElement);
-							}
-						}
-					} else {
-						int index = Integer.parseInt(lastPath);
-						if (index < arr.size()) {
-							JsonElement e1 = arr.get(index);
-							if (e1 != null && !e1.isJsonNull()) {
-								children.add(e1);
-							}
-						}
-					}
-				} else if (parent.isJsonObject()) {
-					JsonElement e1 = parent.getAsJsonObject().get(lastPath);
-					if (e1 != null && !e1.isJsonNull()) {
-						children.add(e1);
-					}
-				}
-			}
-		} else {
-			for (JsonElement parent : parents) {
-				if (parent == null || parent.isJsonNull()) continue;
-				if (parent.isJsonArray()) {
-					JsonArray arr = parent.getAsJsonArray();
-					if (isAnySign(lastPath)) {
-						for (JsonElement jsonElement : arr) {
-							children.add(jsonElement);
-						}
-					} else {
-						int index = Integer.parseInt(lastPath);
-						if (index < arr.size()) {
-							children.add(arr.get(index));
-						}
-					}
-				} else if (parent.isJsonObject()) {
-					children.add(parent.getAsJsonObject().get(lastPath));
-				}
-			}
-		}
+	/** @see CompiledPath#forEach(JsonElement, boolean, Consumer) **/
+	public void forEach(JsonElement e, boolean removeNulls, Consumer<JsonElement> consumer){
+		compile().forEach(e, removeNulls, consumer);
+	}
 
-		return children;
+	/**
+	 * Passes every non-null JsonElement found by this path to the consumer while Json is read from the reader.
+	 * Json is never built in memory whole, only found elements are. Reader is not closed.
+	 * @see CompiledPath#extract(Reader, Consumer)
+	 */
+	public void extract(Reader reader, Consumer<JsonElement> consumer){
+		compile().extract(reader, consumer);
 	}
 
-	/** Same as {@link #get(JsonElement, boolean)}, but makes it easier to analyze lists of Json files **/
-	public List<JsonElement> get(List<JsonElement> elements, boolean removeNulls){
-		List<JsonElement> array = new ArrayList<>();
-		for (JsonElement element : elements) {
-			array.addAll(get(element, removeNulls));
-		}
-		return array;
+	/** Same as {@link #extract(Reader, Consumer)} for Json documents of the JsonReader **/
+	public void extract(JsonReader reader, Consumer<JsonElement> consumer) throws IOException {
+		compile().extract(JsonSource.of(reader), true, consumer);
+	}
+
+	/** @see CompiledPath#extract(JsonSource, boolean, Consumer) **/
+	public void extract(JsonSource source, boolean removeNulls, Consumer<JsonElement> consumer) throws IOException {
+		compile().extract(source, removeNulls, consumer);
+	}
+
+	/** Lazy iterator of non-null JsonElements found by this path **/
+	public Iterator<JsonElement> iterator(JsonElement e){
+		return compile().iterator(e, true);
+	}
+
+	/** @see CompiledPath#iterator(JsonElement, boolean) **/
+	public Iterator<JsonElement> iterator(JsonElement e, boolean removeNulls){
+		return compile().iterator(e, removeNulls);
+	}
+
+	/** Lazy stream of non-null JsonElements found by this path **/
+	public Stream<JsonElement> stream(JsonElement e){
+		return compile().stream(e, true);
+	}
+
+	/** @see CompiledPath#stream(JsonElement, boolean) **/
+	public Stream<JsonElement> stream(JsonElement e, boolean removeNulls){
+		return compile().stream(e, removeNulls);
 	}
 
 	public boolean isArrayElement(){
@@ -264,38 +292,27 @@ public class Path {
 		return val == null ? def : val.getAsJsonArray();
 	}
 
-	/** Returns single JsonElement, implying that there are no arrays in the path. Otherwise might throw exception **/
+	/** Returns single JsonElement, implying that there are no wildcards in the path. Otherwise throws exception **/
 	public JsonElement getSingle(JsonElement e) {
-		for (String s : path) {
-			if (e == null || e.isJsonNull()) {
-				return null;
-			}
-			if (!e.isJsonObject() && !e.isJsonArray()){
-				throw new RuntimeException("Can't access field '" + s + "' inside primitive of type " + e.getClass().getSimpleName());
-			}
-			if (e.isJsonObject()){
-				e = e.getAsJsonObject().get(s);
-			} else {
-				JsonArray arr = e.getAsJsonArray();
-				int index = Integer.parseInt(s.trim());
-				e = arr.get(index);
-			}
-		}
-		return e;
+		return compile().getSingle(e);
 	}
 
-	/** Returns first JsonElement found by this path **/
+	/** Returns first JsonElement found by this path. Stops as soon as it's found **/
 	public JsonElement getFirst(JsonElement e) {
-		List<JsonElement> elements = get(e);
-		return elements.isEmpty() ? null : elements.get(0);
+		return compile().getFirst(e);
 	}
 
-	/** Appends at the end of current path **/
+	/** Appends keys at the end of current path **/
 	public Path child(String... path){
 		String[] p = new String[this.path.length + path.length];
 		System.arraycopy(this.path, 0, p, 0, this.path.length);
 		System.arraycopy(path, 0, p, this.path.length, path.length);
-		return new Path(p);
+		return new Path(p, patterns == null ? null : Arrays.copyOf(patterns, p.length));
+	}
+
+	/** Whether or not segment with this index is **, a slice or a predicate **/
+	boolean isPattern(int index) {
+		return patterns != null && patterns[index];
 	}
 
 	/**
@@ -333,7 +350,14 @@ public class Path {
 		if (path.length == 0) return null;
 		String[] parent = new String[this.path.length - 1];
 		System.arraycopy(this.path, 0, parent, 0, parent.length);
-		return new Path(parent);
+		boolean[] patterns = null;
+		for (int i = 0; this.patterns != null && i < parent.length; i++) {
+			if (this.patterns[i]) {
+				patterns = Arrays.copyOf(this.patterns, parent.length);
+				break;
+			}
+		}
+		return new Path(parent, patterns);
 	}
 
 	@Override
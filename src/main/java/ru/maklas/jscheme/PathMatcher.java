@@ -0,0 +1,599 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.internal.LazilyParsedNumber;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Paths compiled into a nondeterministic automaton, which finds elements of all of them in a single traversal of the Json.
+ * State of the automaton is a position in one of the paths, so a path of n steps has n + 1 states, the last one is final.
+ * Every visited element has a set of active states. Set of a child is found from the set of its parent and key or index of the child,
+ * and the child is visited only if that set is not empty. Every element is visited at most once,
+ * so even paths with recursive descent take time linear in size of the Json.
+ * <p>
+ * Recursive descent ** stays active in every child and is also passed through without moving (epsilon transition),
+ * so it matches zero or more levels.
+ * <p>
+ * Json can also be read token by token from {@link JsonSource}, in which case only found elements are built into JsonElements.
+ * <p>
+ * Immutable and safe to share between threads.
+ */
+final class PathMatcher {
+
+	private final Path[] paths;
+	/** Step of each state. Null for final states **/
+	private final CompiledPath.Step[] steps;
+	/** Final state of each path **/
+	private final int[] finals;
+	/** States reachable from each state without moving: itself and states after recursive descents **/
+	private final long[][] closure;
+	private final long[] initial;
+	/** Final states and states of keys. If all active states are such, children are looked up instead of iterated **/
+	private final long[] keyStates;
+	/** States of predicates, which need the child built to check it, if it's a JsonObject **/
+	private final long[] predicateStates;
+	/** States of slices counted from the end, which need size of JsonArray **/
+	private final long[] sizeStates;
+	/** States of keys right after recursive descent. Such keys are looked for at every level, so they are never missing **/
+	private final long[] descentKeyStates;
+	private final int words;
+
+	PathMatcher(List<Path> paths, List<CompiledPath.Step[]> steps) {
+		this.paths = paths.toArray(new Path[0]);
+		int states = 0;
+		for (CompiledPath.Step[] s : steps) {
+			states += s.length + 1;
+		}
+		this.words = (states + 63) >>> 6;
+		this.steps = new CompiledPath.Step[states];
+		this.finals = new int[paths.size()];
+		int state = 0;
+		this.keyStates = new long[words];
+		this.predicateStates = new long[words];
+		this.sizeStates = new long[words];
+		this.descentKeyStates = new long[words];
+		int[] starts = new int[paths.size()];
+		for (int p = 0; p < steps.size(); p++) {
+			starts[p] = state;
+			CompiledPath.Step previous = null;
+			for (CompiledPath.Step step : steps.get(p)) {
+				if (step.type == CompiledPath.Step.KEY) add(keyStates, state);
+				if (step.type == CompiledPath.Step.KEY && previous != null && previous.type == CompiledPath.Step.DESCENT) add(descentKeyStates, state);
+				if (step.type == CompiledPath.Step.PREDICATE) add(predicateStates, state);
+				if (step.needsSize()) add(sizeStates, state);
+				this.steps[state++] = step;
+				previous = step;
+			}
+			finals[p] = state;
+			add(keyStates, state++);
+		}
+		this.closure = new long[states][];
+		for (int s = states - 1; s >= 0; s--) {
+			long[] set = new long[words];
+			add(set, s);
+			if (this.steps[s] != null && this.steps[s].type == CompiledPath.Step.DESCENT) {
+				or(set, closure[s + 1]);
+			}
+			closure[s] = set;
+		}
+		this.initial = new long[words];
+		for (int start : starts) {
+			or(initial, closure[start]);
+		}
+	}
+
+	/**
+	 * Passes every element found by any of the paths to the consumer in document order.
+	 * Element is passed once for each path that found it.
+	 */
+	void forEach(JsonElement e, boolean removeNulls, BiConsumer<Path, JsonElement> consumer) {
+		new Walk(removeNulls, consumer).visit(e, initial, 0);
+	}
+
+	/**
+	 * Same as {@link #forEach}, but for every Json document of the source, which is read token by token.
+	 * Only found elements are built into JsonElements, everything else is skipped, so memory depends on the size of the biggest found element.
+	 * Exceptions are JsonObjects checked by predicates, which are built before the check,
+	 * and JsonArrays with slices counted from the end, which are built whole since their size is not known until they are read.
+	 * After recursive descent predicates check every JsonObject below the root, so memory depends on the biggest of them,
+	 * and slices counted from the end get every JsonArray including the root one, so the whole Json is built.
+	 * Elements are passed in document order, missing children come after the rest of their JsonObject.
+	 */
+	void extract(JsonSource source, boolean removeNulls, BiConsumer<Path, JsonElement> consumer) throws IOException {
+		StreamWalk walk = new StreamWalk(removeNulls, consumer);
+		while (source.peek() != JsonSource.Token.END_DOCUMENT) {
+			walk.visit(source, initial, 0);
+		}
+	}
+
+	/** Same as {@link #extract}, but reads only the next Json document of the source **/
+	void extractNext(JsonSource source, boolean removeNulls, BiConsumer<Path, JsonElement> consumer) throws IOException {
+		new StreamWalk(removeNulls, consumer).visit(source, initial, 0);
+	}
+
+	/** Lazy version of {@link #forEach}, for the first path only **/
+	Iterator<JsonElement> iterator(JsonElement e, boolean removeNulls) {
+		return new MatchIterator(e, removeNulls);
+	}
+
+	/**
+	 * Finds set of states of the child.
+	 * @param key key of the child in JsonObject, null if it's an element of JsonArray
+	 * @param index index of the child in JsonArray
+	 * @param size size of JsonArray
+	 * @param out cleared and filled with states of the child
+	 * @return false if there are no states, so the child doesn't need to be visited
+	 */
+	private boolean transition(long[] set, String key, int index, int size, JsonElement child, long[] out) {
+		Arrays.fill(out, 0);
+		boolean any = false;
+		for (int w = 0; w < words; w++) {
+			long bits = set[w];
+			while (bits != 0) {
+				int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				CompiledPath.Step step = steps[s];
+				if (step == null) continue;
+				boolean matches;
+				switch (step.type) {
+					case CompiledPath.Step.KEY:
+						matches = key != null ? key.equals(step.key) : index == step.index;
+						break;
+					case CompiledPath.Step.ANY:
+						matches = true;
+						break;
+					case CompiledPath.Step.DESCENT:
+						or(out, closure[s]);
+						any = true;
+						matches = false;
+						break;
+					case CompiledPath.Step.SLICE:
+						matches = key == null && step.inSlice(index, size);
+						break;
+					default:
+						matches = step.test(child);
+						break;
+				}
+				if (matches) {
+					or(out, closure[s + 1]);
+					any = true;
+				}
+			}
+		}
+		return any;
+	}
+
+	/** Whether or not set has states that can move to children **/
+	private boolean canMove(long[] set) {
+		for (int w = 0; w < words; w++) {
+			long bits = set[w];
+			while (bits != 0) {
+				int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if (steps[s] != null) return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean onlyKeys(long[] set) {
+		for (int w = 0; w < words; w++) {
+			if ((set[w] & ~keyStates[w]) != 0) return false;
+		}
+		return true;
+	}
+
+	private boolean intersects(long[] set, long[] states) {
+		for (int w = 0; w < words; w++) {
+			if ((set[w] & states[w]) != 0) return true;
+		}
+		return false;
+	}
+
+	private boolean hasFinal(long[] set) {
+		for (int state : finals) {
+			if (contains(set, state)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Set of states of the missing child of JsonObject, which is visited as null, same as {@link CompiledPath} does.
+	 * @param state key state that expects the child
+	 * @return false if child is not missing, isn't expected or it was already visited for an earlier state with the same key
+	 */
+	private boolean missingTransition(JsonObject obj, long[] set, int state, long[] out) {
+		if (!expectsKey(set, state) || obj.has(steps[state].key)) {
+			return false;
+		}
+		missingStates(set, state, out);
+		return true;
+	}
+
+	/**
+	 * Whether or not missing key of the state is visited as null. Keys right after ** are not:
+	 * they are looked for in every JsonObject below, and most of them don't have the key.
+	 * @return false if an earlier active state expects the same key, so the null was already visited
+	 */
+	private boolean expectsKey(long[] set, int state) {
+		CompiledPath.Step step = steps[state];
+		return step != null && step.type == CompiledPath.Step.KEY && contains(set, state) && !contains(descentKeyStates, state)
+				&& !visitedBefore(set, state, true);
+	}
+
+	/** Fills out with states of the missing child that state and all later active states that expect the same key move to **/
+	private void missingStates(long[] set, int state, long[] out) {
+		String key = steps[state].key;
+		Arrays.fill(out, 0);
+		for (int s = state; s < steps.length; s++) {
+			if (steps[s] != null && steps[s].type == CompiledPath.Step.KEY && contains(set, s) && !contains(descentKeyStates, s) && steps[s].key.equals(key)) {
+				or(out, closure[s + 1]);
+			}
+		}
+	}
+
+	/** Adds to seen every active key state that expects this key **/
+	private void markSeen(long[] set, String key, long[] seen) {
+		for (int w = 0; w < words; w++) {
+			long bits = set[w] & keyStates[w];
+			while (bits != 0) {
+				int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if (steps[s] != null && steps[s].key.equals(key)) {
+					add(seen, s);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Whether or not an earlier active state has the same key, so the child was already visited
+	 * @param missing only states that expect the key count, since the child is missing
+	 */
+	private boolean visitedBefore(long[] set, int state, boolean missing) {
+		String key = steps[state].key;
+		for (int s = 0; s < state; s++) {
+			if (steps[s] != null && steps[s].type == CompiledPath.Step.KEY && contains(set, s) && steps[s].key.equals(key)
+					&& !(missing && contains(descentKeyStates, s))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean contains(long[] set, int state) {
+		return (set[state >>> 6] & (1L << state)) != 0;
+	}
+
+	private static void add(long[] set, int state) {
+		set[state >>> 6] |= 1L << state;
+	}
+
+	private static void or(long[] set, long[] other) {
+		for (int i = 0; i < set.length; i++) {
+			set[i] |= other[i];
+		}
+	}
+
+	private static boolean isNull(JsonElement e) {
+		return e == null || e.isJsonNull();
+	}
+
+	/** Single traversal. Sets of states are reused by depth, so traversal allocates only as much sets as the Json is deep **/
+	private final class Walk {
+
+		private final boolean removeNulls;
+		private final BiConsumer<Path, JsonElement> consumer;
+		private long[][] sets = new long[8][];
+
+		Walk(boolean removeNulls, BiConsumer<Path, JsonElement> consumer) {
+			this.removeNulls = removeNulls;
+			this.consumer = consumer;
+		}
+
+		void visit(JsonElement e, long[] set, int depth) {
+			if (!removeNulls || !isNull(e)) {
+				for (int p = 0; p < finals.length; p++) {
+					if (contains(set, finals[p])) {
+						consumer.accept(paths[p], e);
+					}
+				}
+			}
+			if (e == null || !canMove(set)) return;
+			long[] next = set(depth + 1);
+			if (e.isJsonObject()) {
+				JsonObject obj = e.getAsJsonObject();
+				if (onlyKeys(set)) {
+					visitKeys(obj, set, next, depth);
+					return;
+				}
+				for (Map.Entry<String, JsonElement> entry : obj.entrySet()) {
+					if (transition(set, entry.getKey(), -1, 0, entry.getValue(), next)) {
+						visit(entry.getValue(), next, depth + 1);
+					}
+				}
+				if (!removeNulls) {
+					visitMissing(obj, set, next, depth);
+				}
+			} else if (e.isJsonArray()) {
+				JsonArray arr = e.getAsJsonArray();
+				int size = arr.size();
+				for (int i = 0; i < size; i++) {
+					JsonElement child = arr.get(i);
+					if (transition(set, null, i, size, child, next)) {
+						visit(child, next, depth + 1);
+					}
+				}
+			}
+		}
+
+		/** Only keys are expected, so children are looked up by them. Missing children are visited as null **/
+		private void visitKeys(JsonObject obj, long[] set, long[] next, int depth) {
+			for (int s = 0; s < steps.length; s++) {
+				if (steps[s] == null || !contains(set, s)) continue;
+				String key = steps[s].key;
+				JsonElement child = obj.get(key);
+				if (child == null) {
+					if (!removeNulls && missingTransition(obj, set, s, next)) {
+						visit(null, next, depth + 1);
+					}
+				} else if (!visitedBefore(set, s, false) && transition(set, key, -1, 0, child, next)) {
+					visit(child, next, depth + 1);
+				}
+			}
+		}
+
+		private void visitMissing(JsonObject obj, long[] set, long[] next, int depth) {
+			for (int s = 0; s < steps.length; s++) {
+				if (missingTransition(obj, set, s, next)) {
+					visit(null, next, depth + 1);
+				}
+			}
+		}
+
+		private long[] set(int depth) {
+			if (depth >= sets.length) {
+				sets = Arrays.copyOf(sets, sets.length * 2);
+			}
+			long[] set = sets[depth];
+			if (set == null) {
+				set = new long[words];
+				sets[depth] = set;
+			}
+			return set;
+		}
+	}
+
+	/** Builds the next value of the source into JsonElement **/
+	static JsonElement read(JsonSource source) throws IOException {
+		JsonSource.Token token = source.peek();
+		switch (token) {
+			case BEGIN_OBJECT:
+				JsonObject obj = new JsonObject();
+				source.beginObject();
+				while (source.hasNext()) {
+					String key = source.nextName();
+					obj.add(key, read(source));
+				}
+				source.endObject();
+				return obj;
+			case BEGIN_ARRAY:
+				JsonArray arr = new JsonArray();
+				source.beginArray();
+				while (source.hasNext()) {
+					arr.add(read(source));
+				}
+				source.endArray();
+				return arr;
+			case STRING:
+				return new JsonPrimitive(source.nextString());
+			case NUMBER:
+				return new JsonPrimitive(new LazilyParsedNumber(source.nextString()));
+			case BOOLEAN:
+				return new JsonPrimitive(source.nextBoolean());
+			case NULL:
+				source.nextNull();
+				return JsonNull.INSTANCE;
+			default:
+				throw new IllegalStateException("Expected a value but was " + token + " " + source.getLocation());
+		}
+	}
+
+	/**
+	 * Single pass over the source. Found elements are built and handed over to {@link Walk},
+	 * which passes them to the consumer and continues to look for matches inside of them.
+	 */
+	private final class StreamWalk {
+
+		private final boolean removeNulls;
+		private final Walk tree;
+		private long[][] sets = new long[8][];
+		/** Key states whose keys were met in JsonObject, by depth. Others are missing **/
+		private long[][] seen = new long[8][];
+
+		StreamWalk(boolean removeNulls, BiConsumer<Path, JsonElement> consumer) {
+			this.removeNulls = removeNulls;
+			this.tree = new Walk(removeNulls, consumer);
+		}
+
+		void visit(JsonSource source, long[] set, int depth) throws IOException {
+			JsonSource.Token token = source.peek();
+			if (hasFinal(set) && (!removeNulls || token != JsonSource.Token.NULL)) {
+				tree.visit(read(source), set, depth);
+				return;
+			}
+			if (token == JsonSource.Token.BEGIN_OBJECT && canMove(set)) {
+				visitObject(source, set, depth);
+			} else if (token == JsonSource.Token.BEGIN_ARRAY && canMove(set)) {
+				if (intersects(set, sizeStates)) {
+					tree.visit(read(source), set, depth);
+				} else {
+					visitArray(source, set, depth);
+				}
+			} else {
+				source.skipValue();
+			}
+		}
+
+		private void visitObject(JsonSource source, long[] set, int depth) throws IOException {
+			long[] next = next(depth + 1);
+			long[] seen = removeNulls ? null : seen(depth);
+			if (seen != null) Arrays.fill(seen, 0);
+			boolean predicates = intersects(set, predicateStates);
+			source.beginObject();
+			while (source.hasNext()) {
+				String key = source.nextName();
+				if (seen != null) markSeen(set, key, seen);
+				visitChild(source, set, key, -1, next, predicates, depth);
+			}
+			source.endObject();
+			if (seen != null) {
+				for (int s = 0; s < steps.length; s++) {
+					if (!contains(seen, s) && expectsKey(set, s)) {
+						missingStates(set, s, next);
+						tree.visit(null, next, depth + 1);
+					}
+				}
+			}
+		}
+
+		private void visitArray(JsonSource source, long[] set, int depth) throws IOException {
+			long[] next = next(depth + 1);
+			boolean predicates = intersects(set, predicateStates);
+			int index = 0;
+			source.beginArray();
+			while (source.hasNext()) {
+				visitChild(source, set, null, index++, next, predicates, depth);
+			}
+			source.endArray();
+		}
+
+		/**
+		 * Size of the array is unknown, but slices that need it are never streamed.
+		 * Only JsonObjects can satisfy predicates, so other children are streamed into for the rest of the states
+		 */
+		private void visitChild(JsonSource source, long[] set, String key, int index, long[] next, boolean predicates, int depth) throws IOException {
+			if (predicates && source.peek() == JsonSource.Token.BEGIN_OBJECT) {
+				JsonElement child = read(source);
+				if (transition(set, key, index, Integer.MAX_VALUE, child, next)) {
+					tree.visit(child, next, depth + 1);
+				}
+			} else if (transition(set, key, index, Integer.MAX_VALUE, null, next)) {
+				visit(source, next, depth + 1);
+			} else {
+				source.skipValue();
+			}
+		}
+
+		private long[] next(int depth) {
+			if (depth >= sets.length) {
+				sets = Arrays.copyOf(sets, sets.length * 2);
+			}
+			if (sets[depth] == null) {
+				sets[depth] = new long[words];
+			}
+			return sets[depth];
+		}
+
+		private long[] seen(int depth) {
+			if (depth >= seen.length) {
+				seen = Arrays.copyOf(seen, seen.length * 2);
+			}
+			if (seen[depth] == null) {
+				seen[depth] = new long[words];
+			}
+			return seen[depth];
+		}
+	}
+
+	/** Depth-first iterator over matches of the first path. Keeps a frame for every element on the way from the root **/
+	private final class MatchIterator implements Iterator<JsonElement> {
+
+		private final boolean removeNulls;
+		private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+		private JsonElement next;
+		private boolean hasNext;
+
+		MatchIterator(JsonElement root, boolean removeNulls) {
+			this.removeNulls = removeNulls;
+			push(root, initial);
+		}
+
+		/** Visits the element: it's either a match or a frame to look through **/
+		private void push(JsonElement e, long[] set) {
+			if (contains(set, finals[0]) && (!removeNulls || !isNull(e))) {
+				next = e;
+				hasNext = true;
+			}
+			if (e != null && (e.isJsonObject() || e.isJsonArray()) && canMove(set)) {
+				frames.push(new Frame(e, set));
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!hasNext && !frames.isEmpty()) {
+				Frame frame = frames.peek();
+				long[] set = new long[words];
+				if (frame.entries != null) {
+					if (frame.entries.hasNext()) {
+						Map.Entry<String, JsonElement> entry = frame.entries.next();
+						if (transition(frame.set, entry.getKey(), -1, 0, entry.getValue(), set)) {
+							push(entry.getValue(), set);
+						}
+					} else if (!removeNulls && frame.missing < steps.length) {
+						if (missingTransition(frame.element.getAsJsonObject(), frame.set, frame.missing++, set)) {
+							push(null, set);
+						}
+					} else {
+						frames.pop();
+					}
+				} else {
+					JsonArray arr = frame.element.getAsJsonArray();
+					if (frame.index < arr.size()) {
+						int i = frame.index++;
+						if (transition(frame.set, null, i, arr.size(), arr.get(i), set)) {
+							push(arr.get(i), set);
+						}
+					} else {
+						frames.pop();
+					}
+				}
+			}
+			return hasNext;
+		}
+
+		@Override
+		public JsonElement next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			hasNext = false;
+			JsonElement e = next;
+			next = null;
+			return e;
+		}
+	}
+
+	private static final class Frame {
+
+		final JsonElement element;
+		final long[] set;
+		/** Entries of JsonObject. Null for JsonArray **/
+		final Iterator<Map.Entry<String, JsonElement>> entries;
+		int index;
+		/** Next state to check for missing key, after entries are over **/
+		int missing;
+
+		Frame(JsonElement element, long[] set) {
+			this.element = element;
+			this.set = set;
+			this.entries = element.isJsonObject() ? element.getAsJsonObject().entrySet().iterator() : null;
+		}
+	}
+}
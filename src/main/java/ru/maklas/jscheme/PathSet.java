@@ -0,0 +1,261 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Set of Paths that are evaluated together. Paths are merged into a prefix tree,
+ * so every Json is traversed once no matter how many paths there are, and common prefixes are walked once.
+ * If any of the paths has recursive descent, slices or predicates, all of them are compiled into a single {@link PathMatcher} instead.
+ * Immutable and safe to share between threads.
+ */
+public final class PathSet {
+
+	private final Node root = new Node(null);
+	private final List<Path> paths;
+	/** Null if every path is simple and the prefix tree is used **/
+	private final PathMatcher matcher;
+	/** Matcher of simple paths for {@link #extract}. Created when it's first needed **/
+	private PathMatcher streamMatcher;
+
+	public PathSet(Path... paths) {
+		this(Arrays.asList(paths));
+	}
+
+	public PathSet(Collection<Path> paths) {
+		Set<Path> unique = new LinkedHashSet<>(paths);
+		this.paths = Collections.unmodifiableList(new ArrayList<>(unique));
+		List<CompiledPath.Step[]> steps = new ArrayList<>();
+		boolean simple = true;
+		for (Path path : unique) {
+			CompiledPath compiled = path.compile();
+			steps.add(compiled.steps);
+			simple &= compiled.matcher == null;
+		}
+		this.matcher = simple ? null : new PathMatcher(this.paths, steps);
+		if (!simple) return;
+		for (Path path : unique) {
+			Node node = root;
+			for (CompiledPath.Step step : path.compile().steps) {
+				node = node.child(step);
+			}
+			node.ends.add(path);
+		}
+	}
+
+	/** Paths of this set in the order they were added **/
+	public List<Path> getPaths() {
+		return paths;
+	}
+
+	/** @see #get(JsonElement, boolean) **/
+	public Map<Path, List<JsonElement>> get(JsonElement e) {
+		return get(e, true);
+	}
+
+	/**
+	 * Evaluates all paths in a single traversal of the Json.
+	 * Returns results for every path of this set. Same as calling {@link Path#get(JsonElement, boolean)} for each of them.
+	 * @param removeNulls removes null values from output
+	 */
+	public Map<Path, List<JsonElement>> get(JsonElement e, boolean removeNulls) {
+		return get(Collections.singletonList(e), removeNulls);
+	}
+
+	/** Same as {@link #get(JsonElement, boolean)}, but makes it easier to analyze lists of Json files **/
+	public Map<Path, List<JsonElement>> get(List<JsonElement> elements, boolean removeNulls) {
+		Map<Path, List<JsonElement>> result = new LinkedHashMap<>();
+		for (Path path : paths) {
+			result.put(path, new ArrayList<>());
+		}
+		BiConsumer<Path, JsonElement> collector = (path, element) -> result.get(path).add(element);
+		for (JsonElement element : elements) {
+			forEach(element, removeNulls, collector);
+		}
+		return result;
+	}
+
+	/**
+	 * Evaluates all paths in a single traversal of the Json and passes every found element with its path to the consumer.
+	 * Elements of the same path come in the same order as in {@link Path#get(JsonElement, boolean)},
+	 * but elements of different paths might be interleaved.
+	 * @param removeNulls skips null values
+	 */
+	public void forEach(JsonElement e, boolean removeNulls, BiConsumer<Path, JsonElement> consumer) {
+		SchemeMetrics metrics = JsonScheme.getMetrics();
+		if (metrics != SchemeMetrics.NONE) {
+			Map<Path, int[]> results = new HashMap<>();
+			for (Path path : paths) {
+				results.put(path, new int[1]);
+			}
+			BiConsumer<Path, JsonElement> delegate = consumer;
+			consumer = (path, element) -> {
+				results.get(path)[0]++;
+				delegate.accept(path, element);
+			};
+			evaluate(e, removeNulls, consumer);
+			for (Path path : paths) {
+				metrics.pathEvaluated(path, results.get(path)[0]);
+			}
+		} else {
+			evaluate(e, removeNulls, consumer);
+		}
+	}
+
+	/**
+	 * Evaluates all paths while every Json document of the source is read token by token, so the Json is never built in memory whole.
+	 * Only found elements are built into JsonElements and everything else is skipped.
+	 * Finds the same elements as {@link #forEach(JsonElement, boolean, BiConsumer)}, but passes them in document order.
+	 * @param removeNulls skips null values
+	 * @see CompiledPath#extract(JsonSource, boolean, java.util.function.Consumer)
+	 */
+	public void extract(JsonSource source, boolean removeNulls, BiConsumer<Path, JsonElement> consumer) throws IOException {
+		PathMatcher matcher = streamMatcher();
+		SchemeMetrics metrics = JsonScheme.getMetrics();
+		if (metrics != SchemeMetrics.NONE) {
+			Map<Path, int[]> results = new HashMap<>();
+			for (Path path : paths) {
+				results.put(path, new int[1]);
+			}
+			matcher.extract(source, removeNulls, (path, element) -> {
+				results.get(path)[0]++;
+				consumer.accept(path, element);
+			});
+			for (Path path : paths) {
+				metrics.pathEvaluated(path, results.get(path)[0]);
+			}
+		} else {
+			matcher.extract(source, removeNulls, consumer);
+		}
+	}
+
+	/**
+	 * Same as {@link #extract(JsonSource, boolean, BiConsumer)} for non-null elements of every Json document of the reader,
+	 * like in newline-delimited Json. Reader is not closed.
+	 * @throws JsonSyntaxException if Json is malformed
+	 * @throws JsonIOException if reading failed
+	 */
+	public void extract(Reader reader, BiConsumer<Path, JsonElement> consumer) {
+		JsonReader jsonReader = new JsonReader(reader);
+		jsonReader.setLenient(true);
+		try {
+			extract(JsonSource.of(jsonReader), true, consumer);
+		} catch (MalformedJsonException e) {
+			throw new JsonSyntaxException(e);
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+	/** Same as {@link #extract(Reader, BiConsumer)} for Json documents of the JsonReader **/
+	public void extract(JsonReader reader, BiConsumer<Path, JsonElement> consumer) throws IOException {
+		extract(JsonSource.of(reader), true, consumer);
+	}
+
+	/** Same as {@link #extract(JsonSource, boolean, BiConsumer)}, but reads only the next Json document of the source and doesn't report metrics **/
+	void extractNext(JsonSource source, boolean removeNulls, BiConsumer<Path, JsonElement> consumer) throws IOException {
+		streamMatcher().extractNext(source, removeNulls, consumer);
+	}
+
+	/** Matcher of all paths, including simple ones, which are otherwise evaluated with the prefix tree **/
+	private PathMatcher streamMatcher() {
+		PathMatcher matcher = this.matcher;
+		if (matcher == null) {
+			matcher = streamMatcher;
+			if (matcher == null) {
+				List<CompiledPath.Step[]> steps = new ArrayList<>();
+				for (Path path : paths) {
+					steps.add(path.compile().steps);
+				}
+				matcher = new PathMatcher(paths, steps);
+				streamMatcher = matcher;
+			}
+		}
+		return matcher;
+	}
+
+	private void evaluate(JsonElement e, boolean removeNulls, BiConsumer<Path, JsonElement> consumer) {
+		if (matcher != null) {
+			matcher.forEach(e, removeNulls, consumer);
+		} else {
+			visit(root, e, removeNulls, consumer);
+		}
+	}
+
+	private static void visit(Node node, JsonElement e, boolean removeNulls, BiConsumer<Path, JsonElement> consumer) {
+		if (!node.ends.isEmpty() && (!removeNulls || (e != null && !e.isJsonNull()))) {
+			for (Path path : node.ends) {
+				consumer.accept(path, e);
+			}
+		}
+		if (e == null) return;
+		if (e.isJsonObject()) {
+			JsonObject obj = e.getAsJsonObject();
+			if (node.any != null) {
+				for (Map.Entry<String, JsonElement> entry : obj.entrySet()) {
+					visit(node.any, entry.getValue(), removeNulls, consumer);
+				}
+			}
+			for (Node child : node.children.values()) {
+				visit(child, obj.get(child.step.key), removeNulls, consumer);
+			}
+		} else if (e.isJsonArray()) {
+			JsonArray arr = e.getAsJsonArray();
+			if (node.any != null) {
+				for (JsonElement element : arr) {
+					visit(node.any, element, removeNulls, consumer);
+				}
+			}
+			for (Node child : node.children.values()) {
+				int index = child.step.index;
+				if (index >= 0 && index < arr.size()) {
+					visit(child, arr.get(index), removeNulls, consumer);
+				}
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return paths.toString();
+	}
+
+	/** Node of the prefix tree. One per distinct path prefix **/
+	private static final class Node {
+
+		final CompiledPath.Step step;
+		final Map<String, Node> children = new LinkedHashMap<>();
+		Node any;
+		/** Paths that end at this node **/
+		final List<Path> ends = new ArrayList<>(1);
+
+		Node(CompiledPath.Step step) {
+			this.step = step;
+		}
+
+		Node child(CompiledPath.Step step) {
+			if (step.any) {
+				if (any == null) {
+					any = new Node(step);
+				}
+				return any;
+			}
+			Node child = children.get(step.key);
+			if (child == null) {
+				child = new Node(step);
+				children.put(step.key, child);
+			}
+			return child;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package ru.maklas.jscheme;
+
+import java.util.Arrays;
+
+/**
+ * Interned paths. Every path is identified by an int id and is stored as (id of the parent, last key),
+ * so finding a child of a known path takes a hash lookup of the key and allocates nothing.
+ * Id 0 is the root (empty path). Ids are given in the order paths are added, parent always before its children.
+ * {@link Path} objects are created only when asked for.
+ */
+final class PathTable {
+
+	static final int ROOT = 0;
+
+	private int[] parents = new int[16];
+	private String[] keys = new String[16];
+	private int[] hashes = new int[16];
+	private Path[] paths = new Path[16];
+	private int size = 1;
+	/** Open addressing table of id + 1. 0 is an empty slot **/
+	private int[] table = new int[32];
+
+	PathTable() {
+		keys[ROOT] = "";
+		paths[ROOT] = new Path();
+	}
+
+	/** Amount of paths, including the root **/
+	int size() {
+		return size;
+	}
+
+	int parent(int id) {
+		return parents[id];
+	}
+
+	String key(int id) {
+		return keys[id];
+	}
+
+	/** Id of the child path. Child is added if it wasn't there yet **/
+	int child(int parent, String key) {
+		int hash = hash(parent, key);
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (true) {
+			int id = table[slot] - 1;
+			if (id < 0) {
+				return add(parent, key, hash, slot);
+			}
+			if (hashes[id] == hash && parents[id] == parent && keys[id].equals(key)) {
+				return id;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/** Id of the path. Path and all of its parents are added if they weren't there yet **/
+	int id(Path path) {
+		int id = ROOT;
+		for (String key : path.path) {
+			id = child(id, key);
+		}
+		return id;
+	}
+
+	/** Path of the id. Created once and cached **/
+	Path path(int id) {
+		Path path = paths[id];
+		if (path == null) {
+			path = path(parents[id]).child(keys[id]);
+			paths[id] = path;
+		}
+		return path;
+	}
+
+	/** Ids of all paths of the other table in this table. Paths that are missing are added **/
+	int[] intern(PathTable other) {
+		int[] ids = new int[other.size];
+		for (int i = 1; i < other.size; i++) {
+			ids[i] = child(ids[other.parents[i]], other.keys[i]);
+		}
+		return ids;
+	}
+
+	private int add(int parent, String key, int hash, int slot) {
+		int id = size++;
+		if (id == parents.length) {
+			int capacity = parents.length * 2;
+			parents = Arrays.copyOf(parents, capacity);
+			keys = Arrays.copyOf(keys, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+			paths = Arrays.copyOf(paths, capacity);
+		}
+		parents[id] = parent;
+		keys[id] = key;
+		hashes[id] = hash;
+		table[slot] = id + 1;
+		if (size * 2 > table.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	private void rehash() {
+		int[] table = new int[this.table.length * 2];
+		int mask = table.length - 1;
+		for (int id = 1; id < size; id++) {
+			int slot = hashes[id] & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = id + 1;
+		}
+		this.table = table;
+	}
+
+	private static int hash(int parent, String key) {
+		int h = key.hashCode() * 0x9E3779B9 + parent;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,63 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.JsonElement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.SplittableRandom;
+
+/** Uniform random sampling without replacement **/
+final class Sampling {
+
+	private Sampling() {
+
+	}
+
+	/**
+	 * Sorted indices of a uniform random sample of k out of size elements.
+	 * Reservoir sampling with geometric jumps (Li's algorithm L), so it takes O(k * (1 + log(size / k))) time, not O(size).
+	 */
+	static int[] indices(int size, int k, SplittableRandom random) {
+		if (k >= size) {
+			int[] all = new int[size];
+			for (int i = 0; i < size; i++) {
+				all[i] = i;
+			}
+			return all;
+		}
+		int[] reservoir = new int[k];
+		for (int i = 0; i < k; i++) {
+			reservoir[i] = i;
+		}
+		double w = Math.exp(Math.log(nextDouble(random)) / k);
+		long i = k - 1;
+		while (true) {
+			i += (long) Math.floor(Math.log(nextDouble(random)) / Math.log(1 - w)) + 1;
+			if (i >= size) break;
+			reservoir[random.nextInt(k)] = (int) i;
+			w *= Math.exp(Math.log(nextDouble(random)) / k);
+		}
+		Arrays.sort(reservoir);
+		return reservoir;
+	}
+
+	/** Uniform random sample of at most n documents, in their original order. The list itself if it's small enough **/
+	static List<JsonElement> documents(List<JsonElement> documents, int n, SplittableRandom random) {
+		if (n <= 0 || documents.size() <= n) return documents;
+		if (!(documents instanceof RandomAccess)) {
+			documents = new ArrayList<>(documents);
+		}
+		List<JsonElement> sample = new ArrayList<>(n);
+		for (int index : indices(documents.size(), n, random)) {
+			sample.add(documents.get(index));
+		}
+		return sample;
+	}
+
+	/** Random double in (0, 1], so that its logarithm is finite **/
+	private static double nextDouble(SplittableRandom random) {
+		return 1.0 - random.nextDouble();
+	}
+}
@@ -0,0 +1,380 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Collects scheme of Json documents one by one.
+ * Partial accumulators can be merged, so documents can be processed in parallel.
+ * Paths are interned in {@link PathTable} and infos are kept in array by id of the path,
+ * so once the scheme is known, documents are processed without creating Paths.
+ */
+class SchemeAccumulator {
+
+	private static final String ANY = "*";
+
+	final PathTable paths = new PathTable();
+	/** Info of every path by its id. Null for the root **/
+	private BaseElementInfo[] infos = new BaseElementInfo[16];
+	/** whether or not to fill {@link ExtendedElementInfo} instead of {@link BaseElementInfo} **/
+	final boolean detailed;
+	/** Options of {@link ExtendedElementInfo}. Null if not detailed **/
+	final SchemeOptions options;
+	/** How many root elements were JsonObjects **/
+	int rootObjects;
+	/** Total weight of root JsonObjects. Same as rootObjects, unless documents were sampled **/
+	double rootWeight;
+	/** Maximum amount of visited elements per JsonArray. 0 to visit all of them **/
+	private int arrayCap;
+	private SplittableRandom random;
+	private final SchemeMetrics metrics = JsonScheme.getMetrics();
+
+	/** @param options options of {@link ExtendedElementInfo}. Null to collect only {@link BaseElementInfo} **/
+	SchemeAccumulator(SchemeOptions options) {
+		this.detailed = options != null;
+		this.options = options;
+	}
+
+	/**
+	 * Visits a uniform random sample of at most cap elements of every bigger JsonArray.
+	 * @see SchemeOptions#sampleArrayElements(int)
+	 */
+	void sampleArrays(int cap, long seed) {
+		this.arrayCap = cap;
+		this.random = new SplittableRandom(seed);
+	}
+
+	void add(JsonElement json) {
+		add(json, 1);
+	}
+
+	/** @param weight amount of documents that this one represents. 1 if documents are not sampled **/
+	void add(JsonElement json, double weight) {
+		long start = metrics != SchemeMetrics.NONE ? System.nanoTime() : 0;
+		if (json.isJsonObject()) {
+			rootObjects++;
+			rootWeight += weight;
+		}
+		add(PathTable.ROOT, json, weight);
+		if (metrics != SchemeMetrics.NONE) {
+			metrics.phase(SchemeMetrics.Phase.WALK, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Reads single Json document that takes the whole reader. Reader is not closed.
+	 * @throws JsonSyntaxException if Json is malformed
+	 * @throws JsonIOException if reading failed
+	 */
+	void add(Reader reader) {
+		JsonReader jsonReader = new JsonReader(reader);
+		jsonReader.setLenient(true);
+		try {
+			JsonSource source = JsonSource.of(jsonReader);
+			add(source);
+			if (source.peek() != JsonSource.Token.END_DOCUMENT) {
+				throw new JsonSyntaxException("Did not consume the entire document.");
+			}
+		} catch (MalformedJsonException e) {
+			throw new JsonSyntaxException(e);
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+	/**
+	 * Reads every Json document of the source one after another, like in newline-delimited Json.
+	 * Returns amount of documents read.
+	 * @throws JsonSyntaxException if Json is malformed
+	 * @throws JsonIOException if reading failed
+	 */
+	int addAll(JsonSource source) {
+		int documents = 0;
+		try {
+			while (source.peek() != JsonSource.Token.END_DOCUMENT) {
+				add(source);
+				documents++;
+			}
+			return documents;
+		} catch (MalformedJsonException e) {
+			throw new JsonSyntaxException(e);
+		} catch (IOException e) {
+			throw new JsonIOException(e);
+		}
+	}
+
+	/**
+	 * Reads single Json document from the source without building JsonElement tree.
+	 * Array elements are never sampled here, since size of the array is not known until it's read.
+	 */
+	void add(JsonSource source) throws IOException {
+		long start = metrics != SchemeMetrics.NONE ? System.nanoTime() : 0;
+		JsonSource.Token token = source.peek();
+		if (token == JsonSource.Token.BEGIN_OBJECT) {
+			rootObjects++;
+			rootWeight++;
+			addObject(PathTable.ROOT, source);
+		} else if (token == JsonSource.Token.BEGIN_ARRAY) {
+			addArray(PathTable.ROOT, source);
+		} else {
+			throw new IllegalStateException("Root element must be JsonObject or JsonArray, but was " + token);
+		}
+		if (metrics != SchemeMetrics.NONE) {
+			metrics.phase(SchemeMetrics.Phase.WALK, System.nanoTime() - start);
+		}
+	}
+
+	/** Adds everything that other accumulator has collected. Other accumulator must not be used afterwards **/
+	void merge(SchemeAccumulator other) {
+		long start = metrics != SchemeMetrics.NONE ? System.nanoTime() : 0;
+		rootObjects += other.rootObjects;
+		rootWeight += other.rootWeight;
+		int[] ids = paths.intern(other.paths);
+		for (int i = 1; i < ids.length; i++) {
+			BaseElementInfo otherInfo = other.infos[i];
+			if (otherInfo == null) continue;
+			int id = ids[i];
+			ensureCapacity(id);
+			if (infos[id] == null) {
+				infos[id] = otherInfo;
+			} else {
+				infos[id].merge(otherInfo);
+			}
+		}
+		if (metrics != SchemeMetrics.NONE) {
+			metrics.phase(SchemeMetrics.Phase.MERGE, System.nanoTime() - start);
+		}
+	}
+
+	/** Adds everything that the scheme has collected. Scheme is not changed **/
+	void merge(JsonScheme scheme) {
+		rootObjects += scheme.rootObjects;
+		rootWeight += scheme.rootWeight;
+		for (Map.Entry<Path, BaseElementInfo> entry : scheme.getMap().entrySet()) {
+			getInfo(paths.id(entry.getKey())).merge(entry.getValue());
+		}
+	}
+
+	/** Sets info of the path. Parents of the path must be put before it **/
+	void put(Path path, BaseElementInfo info) {
+		int id = paths.id(path);
+		ensureCapacity(id);
+		infos[id] = info;
+	}
+
+	/** Deep copy of everything collected so far. Copy and this accumulator can be used independently **/
+	SchemeAccumulator copy() {
+		SchemeAccumulator copy = new SchemeAccumulator(options);
+		copy.rootObjects = rootObjects;
+		copy.rootWeight = rootWeight;
+		int[] ids = copy.paths.intern(paths);
+		for (int i = 1; i < ids.length; i++) {
+			if (infos[i] != null) {
+				copy.getInfo(ids[i]).merge(infos[i]);
+			}
+		}
+		return copy;
+	}
+
+	/** Finishes accumulation. Accumulator must not be used afterwards **/
+	JsonScheme build() {
+		long start = metrics != SchemeMetrics.NONE ? System.nanoTime() : 0;
+		resolveMissing();
+		long resolved = metrics != SchemeMetrics.NONE ? System.nanoTime() : 0;
+		Map<Path, BaseElementInfo> map = new LinkedHashMap<>();
+		for (int id = 1; id < paths.size(); id++) {
+			if (infos[id] != null) {
+				map.put(paths.path(id), infos[id]);
+			}
+		}
+		JsonScheme scheme = new JsonScheme(map);
+		scheme.upgraded = detailed;
+		scheme.rootObjects = rootObjects;
+		scheme.rootWeight = rootWeight;
+		if (metrics != SchemeMetrics.NONE) {
+			metrics.phase(SchemeMetrics.Phase.RESOLVE_MISSING, resolved - start);
+			metrics.phase(SchemeMetrics.Phase.BUILD, System.nanoTime() - resolved);
+			reportScheme(map);
+		}
+		return scheme;
+	}
+
+	private void reportScheme(Map<Path, BaseElementInfo> map) {
+		long elements = 0;
+		for (Map.Entry<Path, BaseElementInfo> entry : map.entrySet()) {
+			elements += entry.getValue().presentCount;
+			if (detailed) {
+				metrics.valueMapSize(entry.getKey(), ((ExtendedElementInfo) entry.getValue()).valueMapSize());
+			}
+		}
+		metrics.schemeBuilt(map.size(), elements);
+	}
+
+	private BaseElementInfo getInfo(int id) {
+		ensureCapacity(id);
+		BaseElementInfo info = infos[id];
+		if (info == null){
+			info = detailed ? new ExtendedElementInfo(options) : new BaseElementInfo();
+			infos[id] = info;
+		}
+		return info;
+	}
+
+	private void ensureCapacity(int id) {
+		if (id >= infos.length) {
+			infos = Arrays.copyOf(infos, Math.max(id + 1, infos.length * 2));
+		}
+	}
+
+	/**
+	 * Schema of the Json tree
+	 * @param weight amount of elements that this one represents
+	 */
+	private void add(int path, JsonElement e, double weight) {
+		if (e.isJsonObject()){
+			for (Map.Entry<String, JsonElement> entry : e.getAsJsonObject().entrySet()) {
+				final int elementPath = paths.child(path, entry.getKey());
+				addValue(elementPath, getInfo(elementPath), entry.getValue(), weight);
+			}
+		} else {
+			path = paths.child(path, ANY);
+			BaseElementInfo info = getInfo(path);
+			JsonArray array = e.getAsJsonArray();
+			if (arrayCap > 0 && array.size() > arrayCap) {
+				double elementWeight = weight * array.size() / arrayCap;
+				for (int index : Sampling.indices(array.size(), arrayCap, random)) {
+					addValue(path, info, array.get(index), elementWeight);
+				}
+			} else {
+				for (JsonElement jsonElement : array) {
+					addValue(path, info, jsonElement, weight);
+				}
+			}
+		}
+	}
+
+	private void addValue(int path, BaseElementInfo info, JsonElement val, double weight) {
+		info.update(val);
+		info.presentCount++;
+		if (detailed) {
+			((ExtendedElementInfo) info).processElement(val, weight);
+		}
+		if (val == null || val.isJsonNull()){
+			info.canBeNull = true;
+		} else if (val.isJsonObject()) {
+			info.objectCount++;
+			add(path, val, weight);
+		} else if (val.isJsonArray()) {
+			add(path, val, weight);
+		}
+	}
+
+	/** Schema of the JsonObject that source is currently pointing at **/
+	private void addObject(int path, JsonSource source) throws IOException {
+		source.beginObject();
+		while (source.hasNext()) {
+			final int elementPath = paths.child(path, source.nextName());
+			addValue(elementPath, getInfo(elementPath), source);
+		}
+		source.endObject();
+	}
+
+	/** Schema of the JsonArray that source is currently pointing at. Returns size of the array **/
+	private int addArray(int path, JsonSource source) throws IOException {
+		path = paths.child(path, ANY);
+		BaseElementInfo info = getInfo(path);
+		int size = 0;
+		source.beginArray();
+		while (source.hasNext()) {
+			addValue(path, info, source);
+			size++;
+		}
+		source.endArray();
+		return size;
+	}
+
+	/** Values are only decoded if detailed info needs them, otherwise they are skipped **/
+	private void addValue(int path, BaseElementInfo info, JsonSource source) throws IOException {
+		info.presentCount++;
+		ExtendedElementInfo extended = detailed ? (ExtendedElementInfo) info : null;
+		switch (source.peek()) {
+			case BEGIN_OBJECT:
+				info.updateType(JsonObject.class);
+				info.objectCount++;
+				if (detailed) extended.processObject(1);
+				addObject(path, source);
+				break;
+			case BEGIN_ARRAY:
+				info.updateType(JsonArray.class);
+				int size = addArray(path, source);
+				info.updateArrayLength(size);
+				if (detailed) extended.processArray(size, 1);
+				break;
+			case STRING:
+				info.updateType(String.class);
+				if (detailed) {
+					extended.processString(source.nextString(), 1);
+				} else {
+					source.skipValue();
+				}
+				break;
+			case NUMBER:
+				info.updateType(Number.class);
+				if (detailed) {
+					extended.processNumber(source.nextDouble(), 1);
+				} else {
+					source.skipValue();
+				}
+				break;
+			case BOOLEAN:
+				info.updateType(Boolean.class);
+				if (detailed) {
+					extended.processBoolean(source.nextBoolean(), 1);
+				} else {
+					source.skipValue();
+				}
+				break;
+			case NULL:
+				info.canBeNull = true;
+				source.nextNull();
+				if (detailed) extended.processNull(1);
+				break;
+			default:
+				throw new JsonSyntaxException("Unexpected token " + source.peek() + " " + source.getLocation());
+		}
+	}
+
+	/**
+	 * Reports missing elements: object fields whose parent JsonObject was met more times than the field itself,
+	 * and array elements whose parent was a JsonObject, since such parent has no elements.
+	 * Elements that were already reported missing (for example in merged schemes) are not reported again.
+	 */
+	private void resolveMissing() {
+		for (int id = 1; id < paths.size(); id++) {
+			BaseElementInfo info = infos[id];
+			if (info == null) continue;
+			int parent = paths.parent(id);
+			int parentObjects = parent == PathTable.ROOT ? rootObjects : infos[parent].objectCount;
+			int missing = (Path.isAnySign(paths.key(id)) ? parentObjects : parentObjects - info.presentCount) - info.missingCount;
+			if (missing > 0) {
+				info.addMissing(missing);
+			}
+			if (detailed) {
+				double parentWeight = parent == PathTable.ROOT ? rootWeight : ((ExtendedElementInfo) infos[parent]).getWeightObjects();
+				((ExtendedElementInfo) info).addMissingWeight(parentWeight, missing, Path.isAnySign(paths.key(id)));
+			}
+		}
+	}
+}
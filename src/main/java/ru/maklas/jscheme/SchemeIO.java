@@ -0,0 +1,242 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Binary format of {@link JsonScheme}.
+ * <pre>
+ * magic "JSCH", version byte, detailed byte, rootObjects, rootWeight (since version 2), amount of paths
+ * for each path: index of the parent path + 1 (0 for root), last key of the path, info
+ * </pre>
+ * Parent path always comes before its children. Ints and longs are written as varints, strings as UTF-8 with varint length.
+ * Every info writes its own fields, see write methods of {@link BaseElementInfo}, {@link ExtendedElementInfo} and sketches.
+ */
+final class SchemeIO {
+
+	private static final int MAGIC = 0x4A534348; //JSCH
+	static final int VERSION = 5;
+
+	static final int OBJECT = 1;
+	static final int ARRAY = 2;
+	static final int STRING = 4;
+	static final int NUMBER = 8;
+	static final int BOOLEAN = 16;
+
+	private SchemeIO() {
+
+	}
+
+	static void write(JsonScheme scheme, OutputStream stream) throws IOException {
+		Output out = new Output(stream);
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeBoolean(scheme.upgraded);
+		out.writeVarInt(scheme.rootObjects);
+		out.writeDouble(scheme.rootWeight);
+		Map<Path, BaseElementInfo> map = scheme.getMap();
+		out.writeVarInt(map.size());
+		Map<Path, Integer> indices = new HashMap<>(map.size() * 2);
+		for (Map.Entry<Path, BaseElementInfo> entry : map.entrySet()) {
+			Path path = entry.getKey();
+			Path parent = path.parent();
+			int parentIndex = 0;
+			if (parent.depth() > 0) {
+				Integer index = indices.get(parent);
+				if (index == null) {
+					throw new IllegalStateException("Parent of " + path + " must be in the scheme before it");
+				}
+				parentIndex = index + 1;
+			}
+			indices.put(path, indices.size());
+			out.writeVarInt(parentIndex);
+			out.writeString(path.last());
+			if (scheme.upgraded) {
+				((ExtendedElementInfo) entry.getValue()).write(out);
+			} else {
+				entry.getValue().write(out);
+			}
+		}
+		out.flush();
+	}
+
+	static JsonScheme read(InputStream stream) throws IOException {
+		Input in = new Input(stream);
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a JsonScheme");
+		}
+		int version = in.readByte();
+		if (version < 1 || version > VERSION) {
+			throw new IOException("Unsupported version of JsonScheme: " + version);
+		}
+		in.version = version;
+		boolean detailed = in.readBoolean();
+		int rootObjects = in.readVarInt();
+		double rootWeight = version >= 2 ? in.readDouble() : rootObjects;
+		int size = in.readVarInt();
+		Path[] paths = new Path[size];
+		Map<Path, BaseElementInfo> map = new LinkedHashMap<>(size * 2);
+		for (int i = 0; i < size; i++) {
+			int parentIndex = in.readVarInt();
+			if (parentIndex > i) {
+				throw new IOException("Parent of path #" + i + " comes after it");
+			}
+			Path parent = parentIndex == 0 ? new Path() : paths[parentIndex - 1];
+			Path path = parent.child(in.readString());
+			paths[i] = path;
+			map.put(path, detailed ? ExtendedElementInfo.read(in) : BaseElementInfo.read(in));
+		}
+		JsonScheme scheme = new JsonScheme(map);
+		scheme.upgraded = detailed;
+		scheme.rootObjects = rootObjects;
+		scheme.rootWeight = rootWeight;
+		return scheme;
+	}
+
+	static int typeMask(Set<Class> types) {
+		int mask = 0;
+		if (types.contains(JsonObject.class)) mask |= OBJECT;
+		if (types.contains(JsonArray.class)) mask |= ARRAY;
+		if (types.contains(String.class)) mask |= STRING;
+		if (types.contains(Number.class)) mask |= NUMBER;
+		if (types.contains(Boolean.class)) mask |= BOOLEAN;
+		return mask;
+	}
+
+	static Set<Class> types(int mask) {
+		Set<Class> types = new HashSet<>();
+		if ((mask & OBJECT) != 0) types.add(JsonObject.class);
+		if ((mask & ARRAY) != 0) types.add(JsonArray.class);
+		if ((mask & STRING) != 0) types.add(String.class);
+		if ((mask & NUMBER) != 0) types.add(Number.class);
+		if ((mask & BOOLEAN) != 0) types.add(Boolean.class);
+		return types;
+	}
+
+	/** Buffered binary output with varints **/
+	static final class Output {
+
+		private final DataOutputStream out;
+
+		Output(OutputStream stream) {
+			this.out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		}
+
+		void writeByte(int b) throws IOException {
+			out.writeByte(b);
+		}
+
+		void writeBoolean(boolean b) throws IOException {
+			out.writeBoolean(b);
+		}
+
+		void writeInt(int i) throws IOException {
+			out.writeInt(i);
+		}
+
+		void writeLong(long l) throws IOException {
+			out.writeLong(l);
+		}
+
+		void writeDouble(double d) throws IOException {
+			out.writeDouble(d);
+		}
+
+		void writeBytes(byte[] bytes) throws IOException {
+			out.write(bytes);
+		}
+
+		/** Non-negative int in 1 to 5 bytes **/
+		void writeVarInt(int i) throws IOException {
+			writeVarLong(i & 0xFFFFFFFFL);
+		}
+
+		/** Non-negative long in 1 to 10 bytes **/
+		void writeVarLong(long l) throws IOException {
+			while ((l & ~0x7FL) != 0) {
+				out.writeByte((int) ((l & 0x7F) | 0x80));
+				l >>>= 7;
+			}
+			out.writeByte((int) l);
+		}
+
+		void writeString(String s) throws IOException {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(bytes.length);
+			out.write(bytes);
+		}
+
+		void flush() throws IOException {
+			out.flush();
+		}
+	}
+
+	/** Buffered binary input with varints **/
+	static final class Input {
+
+		/** Longer strings can only come from a corrupted file, so they are rejected before their bytes are allocated **/
+		private static final int MAX_STRING_LENGTH = 1 << 26;
+
+		private final DataInputStream in;
+		/** Version of the format that is being read **/
+		int version = VERSION;
+
+		Input(InputStream stream) {
+			this.in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+		}
+
+		int readByte() throws IOException {
+			return in.readUnsignedByte();
+		}
+
+		boolean readBoolean() throws IOException {
+			return in.readBoolean();
+		}
+
+		int readInt() throws IOException {
+			return in.readInt();
+		}
+
+		long readLong() throws IOException {
+			return in.readLong();
+		}
+
+		double readDouble() throws IOException {
+			return in.readDouble();
+		}
+
+		void readBytes(byte[] bytes) throws IOException {
+			in.readFully(bytes);
+		}
+
+		int readVarInt() throws IOException {
+			long l = readVarLong();
+			if (l > 0xFFFFFFFFL) throw new IOException("Malformed varint");
+			return (int) l;
+		}
+
+		long readVarLong() throws IOException {
+			long l = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = in.readUnsignedByte();
+				l |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return l;
+			}
+			throw new IOException("Malformed varint");
+		}
+
+		String readString() throws IOException {
+			int length = readVarInt();
+			if (length < 0 || length > MAX_STRING_LENGTH) {
+				throw new IOException("Corrupted JsonScheme");
+			}
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+}
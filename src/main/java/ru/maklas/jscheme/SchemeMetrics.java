@@ -0,0 +1,46 @@
+package ru.maklas.jscheme;
+
+/**
+ * Listener of where time of scheme inference and Path evaluation goes, so it can be exported to metrics of the application.
+ * Install it with {@link JsonScheme#setMetrics(SchemeMetrics)}. Default is {@link #NONE}, with which
+ * time is not measured and nothing is counted, so it costs nothing.
+ * <p>
+ * All methods do nothing by default, so only interesting ones need to be implemented.
+ * Methods are called from the threads that do the work, possibly many at once, so implementation must be thread-safe.
+ */
+public interface SchemeMetrics {
+
+	/** Doesn't listen to anything **/
+	SchemeMetrics NONE = new SchemeMetrics() {};
+
+	enum Phase {
+		/** Walk of a single Json document that collects its scheme **/
+		WALK,
+		/** Merge of two partial schemes, for example of parallel tasks **/
+		MERGE,
+		/** Search of fields that were missing in some of the JsonObjects, which makes them nullable **/
+		RESOLVE_MISSING,
+		/** Creation of the scheme map from collected paths **/
+		BUILD,
+		/** {@link JsonScheme#moreInfo(java.util.List, SchemeOptions)} and other versions of it **/
+		MORE_INFO,
+		/** {@link JsonScheme#toString()} and {@link JsonScheme#toStringTree()} **/
+		RENDER
+	}
+
+	/** Phase took that much wall time **/
+	default void phase(Phase phase, long nanos) {}
+
+	/**
+	 * Scheme was built.
+	 * @param paths amount of paths of the scheme
+	 * @param elements amount of elements visited to collect it, not counting the roots
+	 */
+	default void schemeBuilt(int paths, long elements) {}
+
+	/** Amount of strings that detailed scheme keeps for the path. Reported for every path when scheme is built **/
+	default void valueMapSize(Path path, int size) {}
+
+	/** Path was evaluated against a Json with get or forEach of {@link Path}, {@link CompiledPath} or {@link PathSet} and found that much elements **/
+	default void pathEvaluated(Path path, int results) {}
+}
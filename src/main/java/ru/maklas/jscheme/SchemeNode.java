@@ -0,0 +1,64 @@
+package ru.maklas.jscheme;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Node of the scheme tree. Gives direct access to the parent and children of the Path **/
+public class SchemeNode {
+
+	private final Path path;
+	private final BaseElementInfo info;
+	private final SchemeNode parent;
+	private final List<SchemeNode> children = new ArrayList<>();
+	/** Indentation of this node's children in {@link JsonScheme#toStringTree()} **/
+	final int offset;
+
+	SchemeNode(Path path, BaseElementInfo info, SchemeNode parent) {
+		this.path = path;
+		this.info = info;
+		this.parent = parent;
+		this.offset = parent == null ? 0 : parent.offset + offset(path.last());
+	}
+
+	/** Path of this node. Empty for the root **/
+	public Path getPath() {
+		return path;
+	}
+
+	/** Info of this node. Null for the root **/
+	public BaseElementInfo getInfo() {
+		return info;
+	}
+
+	/** Parent node. Null for the root **/
+	public SchemeNode getParent() {
+		return parent;
+	}
+
+	/** Direct children in the same order as they appear in the scheme **/
+	public List<SchemeNode> getChildren() {
+		return Collections.unmodifiableList(children);
+	}
+
+	public boolean isRoot() {
+		return parent == null;
+	}
+
+	void addChild(SchemeNode child) {
+		children.add(child);
+	}
+
+	List<SchemeNode> children() {
+		return children;
+	}
+
+	private static int offset(String s) {
+		return Path.isAnySign(s) ? s.length() + 1 : s.length() / 2 + (s.length() % 2) + 1;
+	}
+
+	@Override
+	public String toString() {
+		return path + " -> " + info;
+	}
+}
@@ -0,0 +1,127 @@
+package ru.maklas.jscheme;
+
+/**
+ * Settings of how scheme and {@link ExtendedElementInfo} collect information.
+ * By default everything is counted exactly.
+ */
+public class SchemeOptions {
+
+	private int topStrings = 0;
+	private int distinctPrecision = 0;
+	private int quantilesK = 0;
+	private int numberFrequencies = 0;
+	private int sampleDocuments = 0;
+	private int sampleArrayElements = 0;
+	private long samplingSeed = 0x5DEECE66DL;
+
+	/**
+	 * Keeps at most k string counters per path instead of counting every distinct string.
+	 * Memory per path becomes fixed, but counts of the most used strings become approximate:
+	 * each one is overestimated by at most (strings seen / k).
+	 * @param k maximum amount of string counters per path. 0 to count all strings exactly
+	 */
+	public SchemeOptions topStrings(int k) {
+		if (k < 0) throw new IllegalArgumentException("k must not be negative: " + k);
+		this.topStrings = k;
+		return this;
+	}
+
+	/** Maximum amount of string counters per path. 0 if all strings are counted exactly **/
+	public int getTopStrings() {
+		return topStrings;
+	}
+
+	/**
+	 * Estimates amount of distinct strings and numbers of every path with HyperLogLog.
+	 * Takes 2^precision bytes per path for each of the types, relative error is about 1.04 / sqrt(2^precision).
+	 * Precision of 12 takes 4 KB and gives about 1.6% error.
+	 * @param precision in range 4..18. 0 to disable estimation
+	 */
+	public SchemeOptions approximateDistinct(int precision) {
+		if (precision != 0 && (precision < 4 || precision > 18)) throw new IllegalArgumentException("Precision must be in range 4..18: " + precision);
+		this.distinctPrecision = precision;
+		return this;
+	}
+
+	/** Precision of HyperLogLog estimation of distinct values. 0 if it's disabled **/
+	public int getDistinctPrecision() {
+		return distinctPrecision;
+	}
+
+	/**
+	 * Estimates quantiles of numbers of every path with KLL sketch, which can be read from {@link NumberStats#getQuantile(double)}.
+	 * Sketch keeps about 3 * k numbers per path, rank error is about 1.65 / k. k = 200 gives less than 1% error.
+	 * @param k at least 8. 0 to disable estimation
+	 */
+	public SchemeOptions numberQuantiles(int k) {
+		if (k != 0 && k < 8) throw new IllegalArgumentException("k must be at least 8: " + k);
+		this.quantilesK = k;
+		return this;
+	}
+
+	/** Accuracy parameter of quantile estimation. 0 if it's disabled **/
+	public int getQuantilesK() {
+		return quantilesK;
+	}
+
+	/**
+	 * Counts how many times every number was met, so most used numbers can be read from {@link ExtendedElementInfo#getTopNumbers(int)}.
+	 * Counting doesn't allocate, but keeps every distinct number, so it stops for paths that have more than maxDistinct of them.
+	 * @param maxDistinct maximum amount of distinct numbers per path. 0 to disable counting
+	 */
+	public SchemeOptions numberFrequencies(int maxDistinct) {
+		if (maxDistinct < 0) throw new IllegalArgumentException("maxDistinct must not be negative: " + maxDistinct);
+		this.numberFrequencies = maxDistinct;
+		return this;
+	}
+
+	/** Maximum amount of distinct numbers counted per path. 0 if numbers are not counted **/
+	public int getNumberFrequencies() {
+		return numberFrequencies;
+	}
+
+	/**
+	 * Collects scheme from a uniform random sample of at most n documents instead of all of them, so time depends on n,
+	 * not on amount of documents. Counts of {@link ExtendedElementInfo} are scaled up to the whole list,
+	 * ratios are reported with confidence intervals, see {@link ExtendedElementInfo#getNonNullRatio()}.
+	 * @param n maximum amount of documents. 0 to use all documents
+	 */
+	public SchemeOptions sampleDocuments(int n) {
+		if (n < 0) throw new IllegalArgumentException("n must not be negative: " + n);
+		this.sampleDocuments = n;
+		return this;
+	}
+
+	/** Maximum amount of documents in the sample. 0 if all documents are used **/
+	public int getSampleDocuments() {
+		return sampleDocuments;
+	}
+
+	/**
+	 * Visits a uniform random sample of at most n elements of every bigger JsonArray. Every visited element stands for
+	 * (array size / n) elements in counts of {@link ExtendedElementInfo}. Array lengths stay exact.
+	 * Number statistics and string counts describe visited elements as they are, so if arrays differ a lot in size,
+	 * they lean towards elements of shorter arrays.
+	 * @param n maximum amount of elements per array. 0 to visit all elements
+	 */
+	public SchemeOptions sampleArrayElements(int n) {
+		if (n < 0) throw new IllegalArgumentException("n must not be negative: " + n);
+		this.sampleArrayElements = n;
+		return this;
+	}
+
+	/** Maximum amount of visited elements per array. 0 if all elements are visited **/
+	public int getSampleArrayElements() {
+		return sampleArrayElements;
+	}
+
+	/** Seed of the random sampling, so that results can be reproduced **/
+	public SchemeOptions samplingSeed(long seed) {
+		this.samplingSeed = seed;
+		return this;
+	}
+
+	public long getSamplingSeed() {
+		return samplingSeed;
+	}
+}
@@ -0,0 +1,395 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Checks Json documents against a reference scheme. Obtain it with {@link JsonScheme#compileValidator()}.
+ * <p>
+ * Document is walked once, together with a tree of the scheme where every path knows its types, whether it can be null,
+ * range of array lengths and which of its fields were always present.
+ * Finds fields that the scheme doesn't have, new types, nulls where there were none, missing fields that were always present
+ * and array lengths out of range.
+ * <p>
+ * Fail-fast methods ({@link #isValid}, {@link #firstViolation}) stop at the first violation,
+ * {@link #validate} collects all of them. Nothing is allocated unless there are violations.
+ * Reading from {@link JsonReader} doesn't build JsonElement tree at all, only field names are created by the reader.
+ * <p>
+ * Immutable and safe to share between threads.
+ */
+public final class SchemeValidator {
+
+	/** Bits of types, same as in masks of {@link SchemeIO#typeMask} **/
+	private static final int OBJECT = SchemeIO.OBJECT;
+	private static final int ARRAY = SchemeIO.ARRAY;
+	private static final int STRING = SchemeIO.STRING;
+	private static final int NUMBER = SchemeIO.NUMBER;
+	private static final int BOOLEAN = SchemeIO.BOOLEAN;
+
+	private final Node root;
+
+	SchemeValidator(JsonScheme scheme) {
+		Map<Path, Node> nodes = new HashMap<>();
+		root = new Node(new Path(), null);
+		root.nullable = false;
+		root.types = scheme.rootObjects > 0 ? OBJECT : 0;
+		root.minArrLength = 0;
+		root.maxArrLength = Integer.MAX_VALUE;
+		nodes.put(root.path, root);
+		for (Map.Entry<Path, BaseElementInfo> entry : scheme.getMap().entrySet()) {
+			node(entry.getKey(), entry.getValue(), nodes, scheme.getMap());
+		}
+		for (Node node : nodes.values()) {
+			node.finish();
+		}
+	}
+
+	private Node node(Path path, BaseElementInfo info, Map<Path, Node> nodes, Map<Path, BaseElementInfo> scheme) {
+		Node node = nodes.get(path);
+		if (node != null) return node;
+		Path parentPath = path.parent();
+		Node parent = node(parentPath, scheme.get(parentPath), nodes, scheme);
+		node = new Node(path, info);
+		nodes.put(path, node);
+		String key = path.last();
+		if (Path.isAnySign(key)) {
+			parent.any = node;
+			if (parent == root) root.types |= ARRAY;
+		} else if (parent == root) {
+			root.types |= OBJECT;
+		}
+		parent.children.put(key, node);
+		return node;
+	}
+
+	/** Fail-fast check of the document **/
+	public boolean isValid(JsonElement json) {
+		return firstViolation(json) == null;
+	}
+
+	/** Fail-fast check of the document. Null if document is valid **/
+	public Violation firstViolation(JsonElement json) {
+		return value(root, json, null, true);
+	}
+
+	/** All violations of the document in the order they were found. Empty list if document is valid **/
+	public List<Violation> validate(JsonElement json) {
+		return toList(value(root, json, null, false));
+	}
+
+	/**
+	 * Fail-fast check of the next document of the reader.
+	 * @see #firstViolation(JsonReader)
+	 */
+	public boolean isValid(JsonReader reader) throws IOException {
+		return firstViolation(reader) == null;
+	}
+
+	/**
+	 * Fail-fast check of the next document of the reader. Null if document is valid.
+	 * Rest of the document is skipped after the violation, so reader always stops right after the document.
+	 */
+	public Violation firstViolation(JsonReader reader) throws IOException {
+		return value(root, reader, null, true);
+	}
+
+	/**
+	 * All violations of the next document of the reader in the order they were found. Empty list if document is valid.
+	 * Reader stops right after the document.
+	 */
+	public List<Violation> validate(JsonReader reader) throws IOException {
+		return toList(value(root, reader, null, false));
+	}
+
+	private static List<Violation> toList(Violation found) {
+		if (found == null) return Collections.emptyList();
+		List<Violation> list = new ArrayList<>();
+		for (Violation v = found; v != null; v = v.next) {
+			list.add(v);
+		}
+		//Chain has the latest violation first
+		Collections.reverse(list);
+		for (Violation v : list) {
+			v.next = null;
+		}
+		return list;
+	}
+
+	/**
+	 * Checks element against the node.
+	 * @param found violations found so far, latest first
+	 * @return violations found so far, including ones of this element
+	 */
+	private Violation value(Node node, JsonElement e, Violation found, boolean failFast) {
+		if (e == null || e.isJsonNull()) {
+			return node.nullable ? found : push(found, Violation.Kind.UNEXPECTED_NULL, node.path, "null is not expected");
+		}
+		int type = type(e);
+		if ((node.types & type) == 0) {
+			return typeViolation(found, node, type);
+		}
+		if (type == OBJECT) {
+			return object(node, e.getAsJsonObject(), found, failFast);
+		}
+		if (type == ARRAY) {
+			return array(node, e.getAsJsonArray(), found, failFast);
+		}
+		return found;
+	}
+
+	/** Fields of the scheme are looked up in the object, so that entries of the object are not iterated unless there are unknown fields **/
+	private Violation object(Node node, JsonObject object, Violation found, boolean failFast) {
+		int matched = 0;
+		for (int i = 0; i < node.fields.length; i++) {
+			Node child = node.fields[i];
+			String key = node.keys[i];
+			JsonElement value = object.get(key);
+			Violation before = found;
+			if (value != null) {
+				matched++;
+				found = value(child, value, found, failFast);
+			} else if (!child.nullable) {
+				found = push(found, Violation.Kind.MISSING, child.path, "field is missing");
+			}
+			for (Violation v = found; v != before; v = v.next) {
+				v.prependKey(key);
+			}
+			if (failFast && found != null) return found;
+		}
+		if (matched < object.size()) {
+			for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+				if (!node.children.containsKey(entry.getKey())) {
+					found = push(found, Violation.Kind.UNEXPECTED_PATH, node.path.child(entry.getKey()), "field is not expected");
+					found.prependKey(entry.getKey());
+					if (failFast) return found;
+				}
+			}
+		}
+		return found;
+	}
+
+	private Violation array(Node node, JsonArray array, Violation found, boolean failFast) {
+		int size = array.size();
+		if (size < node.minArrLength || size > node.maxArrLength) {
+			found = lengthViolation(found, node, size);
+			if (failFast) return found;
+		}
+		for (int i = 0; i < size; i++) {
+			Violation before = found;
+			if (node.any == null) {
+				found = push(found, Violation.Kind.UNEXPECTED_PATH, node.path.child("*"), "element is not expected");
+			} else {
+				found = value(node.any, array.get(i), found, failFast);
+			}
+			for (Violation v = found; v != before; v = v.next) {
+				v.prependIndex(i);
+			}
+			if (failFast && found != null) return found;
+		}
+		return found;
+	}
+
+	/** Same as {@link #value(Node, JsonElement, Violation, boolean)}, but reads the value from the reader **/
+	private Violation value(Node node, JsonReader reader, Violation found, boolean failFast) throws IOException {
+		int type;
+		switch (reader.peek()) {
+			case NULL:
+				reader.nextNull();
+				return node.nullable ? found : push(found, Violation.Kind.UNEXPECTED_NULL, node.path, "null is not expected");
+			case BEGIN_OBJECT:
+				type = OBJECT;
+				break;
+			case BEGIN_ARRAY:
+				type = ARRAY;
+				break;
+			case STRING:
+				type = STRING;
+				break;
+			case NUMBER:
+				type = NUMBER;
+				break;
+			case BOOLEAN:
+				type = BOOLEAN;
+				break;
+			default:
+				throw new IllegalStateException("Unexpected token " + reader.peek() + " at " + reader.getPath());
+		}
+		if ((node.types & type) == 0) {
+			reader.skipValue();
+			return typeViolation(found, node, type);
+		}
+		if (type == OBJECT) {
+			return object(node, reader, found, failFast);
+		}
+		if (type == ARRAY) {
+			return array(node, reader, found, failFast);
+		}
+		reader.skipValue();
+		return found;
+	}
+
+	private Violation object(Node node, JsonReader reader, Violation found, boolean failFast) throws IOException {
+		//Bit for each field that was always present. Objects with more than 64 such fields need more words
+		long seen = 0;
+		long[] seenMore = node.required.length > 64 ? new long[(node.required.length - 1) / 64] : null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String key = reader.nextName();
+			if (failFast && found != null) {
+				reader.skipValue();
+				continue;
+			}
+			Node child = node.children.get(key);
+			Violation before = found;
+			if (child == null) {
+				reader.skipValue();
+				found = push(found, Violation.Kind.UNEXPECTED_PATH, node.path.child(key), "field is not expected");
+			} else {
+				int index = child.requiredIndex;
+				if (index >= 64) {
+					seenMore[(index >>> 6) - 1] |= 1L << index;
+				} else if (index >= 0) {
+					seen |= 1L << index;
+				}
+				found = value(child, reader, found, failFast);
+			}
+			for (Violation v = found; v != before; v = v.next) {
+				v.prependKey(key);
+			}
+		}
+		reader.endObject();
+		if (failFast && found != null) return found;
+		Node[] required = node.required;
+		for (int i = 0; i < required.length; i++) {
+			boolean present = i < 64 ? (seen & (1L << i)) != 0 : (seenMore[(i >>> 6) - 1] & (1L << i)) != 0;
+			if (!present) {
+				found = push(found, Violation.Kind.MISSING, required[i].path, "field is missing");
+				found.prependKey(required[i].path.last());
+				if (failFast) return found;
+			}
+		}
+		return found;
+	}
+
+	private Violation array(Node node, JsonReader reader, Violation found, boolean failFast) throws IOException {
+		int size = 0;
+		reader.beginArray();
+		while (reader.hasNext()) {
+			if (failFast && found != null) {
+				reader.skipValue();
+				continue;
+			}
+			Violation before = found;
+			if (node.any == null) {
+				reader.skipValue();
+				found = push(found, Violation.Kind.UNEXPECTED_PATH, node.path.child("*"), "element is not expected");
+			} else {
+				found = value(node.any, reader, found, failFast);
+			}
+			for (Violation v = found; v != before; v = v.next) {
+				v.prependIndex(size);
+			}
+			size++;
+		}
+		reader.endArray();
+		if (failFast && found != null) return found;
+		if (size < node.minArrLength || size > node.maxArrLength) {
+			found = lengthViolation(found, node, size);
+		}
+		return found;
+	}
+
+	private static Violation typeViolation(Violation found, Node node, int type) {
+		return push(found, Violation.Kind.UNEXPECTED_TYPE, node.path, "expected " + typeNames(node.types) + ", but was " + typeNames(type));
+	}
+
+	private static Violation lengthViolation(Violation found, Node node, int size) {
+		return push(found, Violation.Kind.ARRAY_LENGTH, node.path, "length " + size + " is out of " + node.minArrLength + ".." + node.maxArrLength);
+	}
+
+	private static Violation push(Violation found, Violation.Kind kind, Path path, String message) {
+		Violation violation = new Violation(kind, path, message, "");
+		violation.next = found;
+		return violation;
+	}
+
+	private static int type(JsonElement e) {
+		if (e.isJsonObject()) return OBJECT;
+		if (e.isJsonArray()) return ARRAY;
+		JsonPrimitive primitive = e.getAsJsonPrimitive();
+		if (primitive.isBoolean()) return BOOLEAN;
+		if (primitive.isNumber()) return NUMBER;
+		return STRING;
+	}
+
+	private static String typeNames(int types) {
+		if (types == 0) return "null";
+		StringJoiner joiner = new StringJoiner(", ");
+		if ((types & OBJECT) != 0) joiner.add("JsonObject");
+		if ((types & ARRAY) != 0) joiner.add("JsonArray");
+		if ((types & STRING) != 0) joiner.add("String");
+		if ((types & NUMBER) != 0) joiner.add("Number");
+		if ((types & BOOLEAN) != 0) joiner.add("Boolean");
+		return joiner.toString();
+	}
+
+	/** Path of the scheme, compiled for validation **/
+	private static final class Node {
+
+		final Path path;
+		int types;
+		boolean nullable;
+		int minArrLength;
+		int maxArrLength;
+		final Map<String, Node> children = new LinkedHashMap<>();
+		/** Element of JsonArray. Null if arrays of this path were always empty **/
+		Node any;
+		/** Same as children, but as arrays for fast iteration. Array elements are not included **/
+		Node[] fields;
+		String[] keys;
+		/** Children that were always present. Each of them knows its index here **/
+		Node[] required;
+		int requiredIndex = -1;
+
+		/** @param info info of the path. If it's unknown, anything is allowed **/
+		Node(Path path, BaseElementInfo info) {
+			this.path = path;
+			if (info != null) {
+				types = SchemeIO.typeMask(info.types);
+				nullable = info.canBeNull;
+				minArrLength = info.minArrLength;
+				maxArrLength = info.maxArrLength;
+			} else {
+				types = OBJECT | ARRAY | STRING | NUMBER | BOOLEAN;
+				nullable = true;
+				minArrLength = 0;
+				maxArrLength = Integer.MAX_VALUE;
+			}
+		}
+
+		void finish() {
+			List<Node> fields = new ArrayList<>();
+			List<Node> required = new ArrayList<>();
+			for (Node child : children.values()) {
+				if (child == any) continue;
+				fields.add(child);
+				if (!child.nullable) {
+					child.requiredIndex = required.size();
+					required.add(child);
+				}
+			}
+			this.fields = fields.toArray(new Node[0]);
+			this.keys = new String[this.fields.length];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = this.fields[i].path.last();
+			}
+			this.required = required.toArray(new Node[0]);
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package ru.maklas.jscheme;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Space-Saving sketch of the most frequent strings. Keeps at most capacity counters.
+ * When a new string comes and there is no room, it replaces the least counted one and inherits its count as an error.
+ * Count of every tracked string is overestimated by at most its error, which is never more than total / capacity.
+ */
+class SpaceSaving {
+
+	private final int capacity;
+	/** Position of the string in the heap **/
+	private final Map<String, Integer> positions;
+	/** Min-heap by count **/
+	private final String[] keys;
+	private final long[] counts;
+	private final long[] errors;
+	private int size;
+	private long total;
+	/** Whether or not some strings were ever evicted. If not, all counts are exact **/
+	private boolean overflowed;
+
+	SpaceSaving(int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		this.capacity = capacity;
+		this.positions = new HashMap<>(Math.min(capacity, 1024) * 2);
+		this.keys = new String[capacity];
+		this.counts = new long[capacity];
+		this.errors = new long[capacity];
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	/** Amount of tracked strings **/
+	int size() {
+		return size;
+	}
+
+	/** Amount of all strings that were added **/
+	long total() {
+		return total;
+	}
+
+	boolean isOverflowed() {
+		return overflowed;
+	}
+
+	void add(String value) {
+		add(value, 1, 0);
+	}
+
+	private void add(String value, long count, long error) {
+		total += count;
+		Integer position = positions.get(value);
+		if (position != null) {
+			int i = position;
+			counts[i] += count;
+			errors[i] += error;
+			siftDown(i);
+		} else if (size < capacity) {
+			int i = size++;
+			set(i, value, count, error);
+			siftUp(i);
+		} else {
+			overflowed = true;
+			positions.remove(keys[0]);
+			set(0, value, counts[0] + count, counts[0] + error);
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * Adds counters of the other sketch. Strings that are missing from one of the sketches are assumed
+	 * to have its minimum count, so counts stay overestimated and errors stay bounded.
+	 */
+	void merge(SpaceSaving other) {
+		long thisMin = overflowed && size > 0 ? counts[0] : 0;
+		long otherMin = other.overflowed && other.size > 0 ? other.counts[0] : 0;
+		Map<String, long[]> union = new HashMap<>((size + other.size) * 2);
+		for (int i = 0; i < size; i++) {
+			union.put(keys[i], new long[]{counts[i] + otherMin, errors[i] + otherMin});
+		}
+		for (int i = 0; i < other.size; i++) {
+			long[] c = union.get(other.keys[i]);
+			if (c == null) {
+				union.put(other.keys[i], new long[]{other.counts[i] + thisMin, other.errors[i] + thisMin});
+			} else {
+				c[0] += other.counts[i] - otherMin;
+				c[1] += other.errors[i] - otherMin;
+			}
+		}
+		List<Map.Entry<String, long[]>> entries = new ArrayList<>(union.entrySet());
+		entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+
+		long mergedTotal = total + other.total;
+		overflowed = overflowed || other.overflowed || entries.size() > capacity;
+		positions.clear();
+		size = 0;
+		total = 0;
+		for (int i = 0; i < entries.size() && i < capacity; i++) {
+			Map.Entry<String, long[]> e = entries.get(i);
+			add(e.getKey(), e.getValue()[0], e.getValue()[1]);
+		}
+		total = mergedTotal;
+	}
+
+	/** Adds exactly counted strings **/
+	void addAll(ObjectIntMap<String> values) {
+		for (int i = 0; i < values.size(); i++) {
+			add(values.keyAt(i), values.valueAt(i), 0);
+		}
+	}
+
+	/** Tracked strings with their counts, most frequent first **/
+	LinkedHashMap<String, Long> top(int limit) {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+		LinkedHashMap<String, Long> top = new LinkedHashMap<>();
+		for (int i = 0; i < order.length && i < limit; i++) {
+			top.put(keys[order[i]], counts[order[i]]);
+		}
+		return top;
+	}
+
+	/** Maximum overestimation of the count of this string. 0 if string is not tracked **/
+	long error(String value) {
+		Integer position = positions.get(value);
+		return position == null ? 0 : errors[position];
+	}
+
+	/** Writes the heap as is, so it's restored without re-sorting **/
+	void write(SchemeIO.Output out) throws IOException {
+		out.writeVarInt(capacity);
+		out.writeVarInt(size);
+		out.writeVarLong(total);
+		out.writeBoolean(overflowed);
+		for (int i = 0; i < size; i++) {
+			out.writeString(keys[i]);
+			out.writeVarLong(counts[i]);
+			out.writeVarLong(errors[i]);
+		}
+	}
+
+	static SpaceSaving read(SchemeIO.Input in) throws IOException {
+		SpaceSaving sketch = new SpaceSaving(in.readVarInt());
+		int size = in.readVarInt();
+		if (size > sketch.capacity) throw new IOException("Malformed sketch: " + size + " counters with capacity " + sketch.capacity);
+		sketch.total = in.readVarLong();
+		sketch.overflowed = in.readBoolean();
+		for (int i = 0; i < size; i++) {
+			sketch.set(i, in.readString(), in.readVarLong(), in.readVarLong());
+		}
+		sketch.size = size;
+		return sketch;
+	}
+
+	private void set(int i, String key, long count, long error) {
+		keys[i] = key;
+		counts[i] = count;
+		errors[i] = error;
+		positions.put(key, i);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (counts[parent] <= counts[i]) break;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int left = 2 * i + 1;
+			if (left >= size) break;
+			int smallest = left + 1 < size && counts[left + 1] < counts[left] ? left + 1 : left;
+			if (counts[i] <= counts[smallest]) break;
+			swap(i, smallest);
+			i = smallest;
+		}
+	}
+
+	private void swap(int a, int b) {
+		String key = keys[a];
+		long count = counts[a];
+		long error = errors[a];
+		keys[a] = keys[b];
+		counts[a] = counts[b];
+		errors[a] = errors[b];
+		keys[b] = key;
+		counts[b] = count;
+		errors[b] = error;
+		positions.put(keys[a], a);
+		positions.put(keys[b], b);
+	}
+}
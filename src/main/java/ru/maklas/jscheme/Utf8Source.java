@@ -0,0 +1,457 @@
+package ru.maklas.jscheme;
+
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * {@link JsonSource} that reads UTF-8 bytes directly, without Reader and without Gson.
+ * Names are interned by their bytes: a name that was met before is found in a table and is not decoded into a new String again,
+ * so Jsons with repeating structure create almost no Strings when their scheme is collected.
+ * Values that are skipped are not decoded either. Contents of skipped objects and arrays are not validated.
+ */
+final class Utf8Source implements JsonSource {
+
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_OBJECT = 2;
+	private static final int NONEMPTY_OBJECT = 3;
+	private static final int DANGLING_NAME = 4;
+	private static final int EMPTY_ARRAY = 5;
+	private static final int NONEMPTY_ARRAY = 6;
+	/** Names are not interned after that many, so that Jsons with unique keys don't fill the memory **/
+	private static final int MAX_NAMES = 8192;
+
+	private final byte[] buf;
+	private final int start;
+	private final int end;
+	private int pos;
+	private int[] stack = new int[32];
+	private int depth = 1;
+	/** Next token, found by peek(). Null if it's not known yet **/
+	private Token peeked;
+
+	//Interned names, open addressing by hash of bytes
+	private int[] table = new int[64];
+	private byte[][] nameBytes = new byte[32][];
+	private String[] names = new String[32];
+	private int[] nameHashes = new int[32];
+	private int nameCount;
+
+	Utf8Source(byte[] buf, int start, int end) {
+		this.buf = buf;
+		this.start = start;
+		this.end = end;
+		this.pos = start;
+		stack[0] = EMPTY_DOCUMENT;
+	}
+
+	@Override
+	public Token peek() throws IOException {
+		if (peeked != null) return peeked;
+		int c;
+		switch (stack[depth - 1]) {
+			case EMPTY_ARRAY:
+				if (nextChar() == ']') return peeked = Token.END_ARRAY;
+				stack[depth - 1] = NONEMPTY_ARRAY;
+				return peeked = value();
+			case NONEMPTY_ARRAY:
+				c = nextChar();
+				if (c == ']') return peeked = Token.END_ARRAY;
+				if (c != ',') throw syntax("Unterminated array");
+				pos++;
+				return peeked = value();
+			case EMPTY_OBJECT:
+			case NONEMPTY_OBJECT:
+				c = nextChar();
+				if (c == '}') return peeked = Token.END_OBJECT;
+				if (stack[depth - 1] == NONEMPTY_OBJECT) {
+					if (c != ',') throw syntax("Unterminated object");
+					pos++;
+					c = nextChar();
+				}
+				if (c != '"') throw syntax("Expected name");
+				stack[depth - 1] = DANGLING_NAME;
+				return peeked = Token.NAME;
+			case DANGLING_NAME:
+				if (nextChar() != ':') throw syntax("Expected ':'");
+				pos++;
+				stack[depth - 1] = NONEMPTY_OBJECT;
+				return peeked = value();
+			default:
+				if (nextChar() < 0) return peeked = Token.END_DOCUMENT;
+				stack[depth - 1] = NONEMPTY_DOCUMENT;
+				return peeked = value();
+		}
+	}
+
+	/** Token of the value that starts at the next non-whitespace byte **/
+	private Token value() throws IOException {
+		int c = nextChar();
+		switch (c) {
+			case '{': return Token.BEGIN_OBJECT;
+			case '[': return Token.BEGIN_ARRAY;
+			case '"': return Token.STRING;
+			case 't':
+			case 'f': return Token.BOOLEAN;
+			case 'n': return Token.NULL;
+			case -1: throw syntax("End of input");
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) return Token.NUMBER;
+				throw syntax("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	/** Skips whitespace. Next byte, -1 if there are no more **/
+	private int nextChar() {
+		while (pos < end) {
+			byte b = buf[pos];
+			if (b != ' ' && b != '\n' && b != '\r' && b != '\t') return b & 0xFF;
+			pos++;
+		}
+		return -1;
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+		expect(Token.BEGIN_OBJECT);
+		pos++;
+		push(EMPTY_OBJECT);
+	}
+
+	@Override
+	public void endObject() throws IOException {
+		expect(Token.END_OBJECT);
+		pos++;
+		depth--;
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+		expect(Token.BEGIN_ARRAY);
+		pos++;
+		push(EMPTY_ARRAY);
+	}
+
+	@Override
+	public void endArray() throws IOException {
+		expect(Token.END_ARRAY);
+		pos++;
+		depth--;
+	}
+
+	@Override
+	public boolean hasNext() throws IOException {
+		Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	@Override
+	public String nextName() throws IOException {
+		expect(Token.NAME);
+		return readName();
+	}
+
+	@Override
+	public String nextString() throws IOException {
+		Token token = peek();
+		peeked = null;
+		if (token == Token.STRING) {
+			return readString();
+		}
+		if (token == Token.NUMBER) {
+			int from = pos;
+			pos = numberEnd(pos);
+			return new String(buf, from, pos - from, StandardCharsets.ISO_8859_1);
+		}
+		throw unexpected(Token.STRING, token);
+	}
+
+	@Override
+	public double nextDouble() throws IOException {
+		Token token = peek();
+		peeked = null;
+		if (token == Token.NUMBER) {
+			return readNumber();
+		}
+		if (token == Token.STRING) {
+			String s = readString();
+			try {
+				return Double.parseDouble(s);
+			} catch (NumberFormatException e) {
+				throw syntax("Expected a double but was '" + s + "'");
+			}
+		}
+		throw unexpected(Token.NUMBER, token);
+	}
+
+	@Override
+	public boolean nextBoolean() throws IOException {
+		expect(Token.BOOLEAN);
+		if (buf[pos] == 't') {
+			literal("true");
+			return true;
+		}
+		literal("false");
+		return false;
+	}
+
+	@Override
+	public void nextNull() throws IOException {
+		expect(Token.NULL);
+		literal("null");
+	}
+
+	@Override
+	public void skipValue() throws IOException {
+		Token token = peek();
+		peeked = null;
+		switch (token) {
+			case BEGIN_OBJECT:
+			case BEGIN_ARRAY:
+				skipStructure();
+				break;
+			case STRING:
+				pos = stringEnd(pos) + 1;
+				break;
+			case NUMBER:
+				pos = numberEnd(pos);
+				break;
+			case BOOLEAN:
+				literal(buf[pos] == 't' ? "true" : "false");
+				break;
+			case NULL:
+				literal("null");
+				break;
+			default:
+				throw new IllegalStateException("Expected a value but was " + token + " " + getLocation());
+		}
+	}
+
+	@Override
+	public String getLocation() {
+		return "at byte " + (pos - start);
+	}
+
+	/** Checks that the next token is the expected one and consumes it **/
+	private void expect(Token expected) throws IOException {
+		Token token = peek();
+		if (token != expected) {
+			throw unexpected(expected, token);
+		}
+		peeked = null;
+	}
+
+	private IllegalStateException unexpected(Token expected, Token token) {
+		return new IllegalStateException("Expected " + expected + " but was " + token + " " + getLocation());
+	}
+
+	private MalformedJsonException syntax(String message) {
+		return new MalformedJsonException(message + " " + getLocation());
+	}
+
+	private void push(int scope) {
+		if (depth == stack.length) {
+			stack = Arrays.copyOf(stack, depth * 2);
+		}
+		stack[depth++] = scope;
+	}
+
+	private void literal(String word) throws IOException {
+		int length = word.length();
+		if (pos + length > end) throw syntax("Expected " + word);
+		for (int i = 0; i < length; i++) {
+			if (buf[pos + i] != word.charAt(i)) throw syntax("Expected " + word);
+		}
+		pos += length;
+	}
+
+	/** Skips object or array with everything inside, only counting brackets **/
+	private void skipStructure() throws IOException {
+		int level = 0;
+		while (pos < end) {
+			byte b = buf[pos];
+			if (b == '"') {
+				pos = stringEnd(pos);
+			} else if (b == '{' || b == '[') {
+				level++;
+			} else if (b == '}' || b == ']') {
+				if (--level == 0) {
+					pos++;
+					return;
+				}
+			}
+			pos++;
+		}
+		throw syntax("Unterminated " + (level > 0 ? "structure" : "input"));
+	}
+
+	/** Index of the closing quote of the string that starts with the quote at from **/
+	private int stringEnd(int from) throws IOException {
+		for (int i = from + 1; i < end; i++) {
+			byte b = buf[i];
+			if (b == '"') return i;
+			if (b == '\\') i++;
+		}
+		throw syntax("Unterminated string");
+	}
+
+	private static boolean isNumberChar(byte b) {
+		return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+	}
+
+	private int numberEnd(int from) {
+		int i = from;
+		while (i < end && isNumberChar(buf[i])) {
+			i++;
+		}
+		return i;
+	}
+
+	/** Integers of up to 15 digits are exact in double, so they are parsed without creating a String **/
+	private double readNumber() throws IOException {
+		int from = pos;
+		int to = numberEnd(from);
+		pos = to;
+		int i = from;
+		boolean negative = buf[i] == '-';
+		if (negative) i++;
+		if (to - i > 0 && to - i <= 15) {
+			long value = 0;
+			for (; i < to; i++) {
+				byte b = buf[i];
+				if (b < '0' || b > '9') break;
+				value = value * 10 + (b - '0');
+			}
+			if (i == to) {
+				return negative ? -value : value;
+			}
+		}
+		String number = new String(buf, from, to - from, StandardCharsets.ISO_8859_1);
+		try {
+			return Double.parseDouble(number);
+		} catch (NumberFormatException e) {
+			throw syntax("Malformed number '" + number + "'");
+		}
+	}
+
+	private String readString() throws IOException {
+		int close = stringEnd(pos);
+		String s = decode(pos + 1, close);
+		pos = close + 1;
+		return s;
+	}
+
+	/** Name from the table of interned names. Decoded and added to the table if it's not there **/
+	private String readName() throws IOException {
+		int from = pos + 1;
+		int close = stringEnd(pos);
+		pos = close + 1;
+		int length = close - from;
+		int hash = 1;
+		for (int i = from; i < close; i++) {
+			hash = 31 * hash + buf[i];
+		}
+		hash *= 0x9E3779B9; //Keys like "k1", "k2" would take consecutive slots otherwise
+		hash ^= hash >>> 16;
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (true) {
+			int index = table[slot] - 1;
+			if (index < 0) break;
+			if (nameHashes[index] == hash && equal(nameBytes[index], from, length)) {
+				return names[index];
+			}
+			slot = (slot + 1) & mask;
+		}
+		String name = decode(from, close);
+		if (nameCount < MAX_NAMES) {
+			addName(Arrays.copyOfRange(buf, from, close), name, hash, slot);
+		}
+		return name;
+	}
+
+	private boolean equal(byte[] bytes, int from, int length) {
+		if (bytes.length != length) return false;
+		for (int i = 0; i < length; i++) {
+			if (bytes[i] != buf[from + i]) return false;
+		}
+		return true;
+	}
+
+	private void addName(byte[] bytes, String name, int hash, int slot) {
+		int index = nameCount++;
+		if (index == names.length) {
+			nameBytes = Arrays.copyOf(nameBytes, index * 2);
+			names = Arrays.copyOf(names, index * 2);
+			nameHashes = Arrays.copyOf(nameHashes, index * 2);
+		}
+		nameBytes[index] = bytes;
+		names[index] = name;
+		nameHashes[index] = hash;
+		table[slot] = index + 1;
+		if (nameCount * 2 > table.length) {
+			int[] table = new int[this.table.length * 2];
+			int mask = table.length - 1;
+			for (int i = 0; i < nameCount; i++) {
+				int s = nameHashes[i] & mask;
+				while (table[s] != 0) {
+					s = (s + 1) & mask;
+				}
+				table[s] = i + 1;
+			}
+			this.table = table;
+		}
+	}
+
+	/** Decodes UTF-8 string between the quotes with escape sequences **/
+	private String decode(int from, int to) throws IOException {
+		int escape = from;
+		while (escape < to && buf[escape] != '\\') {
+			escape++;
+		}
+		if (escape == to) {
+			return new String(buf, from, to - from, StandardCharsets.UTF_8);
+		}
+		//Escapes are ASCII, so parts between them are whole UTF-8 sequences
+		StringBuilder sb = new StringBuilder(to - from);
+		int segment = from;
+		int i = escape;
+		while (i < to) {
+			if (buf[i] != '\\') {
+				i++;
+				continue;
+			}
+			sb.append(new String(buf, segment, i - segment, StandardCharsets.UTF_8));
+			if (i + 1 >= to) throw syntax("Unterminated escape sequence");
+			byte e = buf[i + 1];
+			i += 2;
+			switch (e) {
+				case 'n': sb.append('\n'); break;
+				case 't': sb.append('\t'); break;
+				case 'r': sb.append('\r'); break;
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'u':
+					if (i + 4 > to) throw syntax("Unterminated escape sequence");
+					int c = 0;
+					for (int j = 0; j < 4; j++) {
+						int digit = Character.digit(buf[i + j], 16);
+						if (digit < 0) throw syntax("Malformed escape sequence");
+						c = c * 16 + digit;
+					}
+					sb.append((char) c);
+					i += 4;
+					break;
+				default:
+					sb.append((char) e);
+					break;
+			}
+			segment = i;
+		}
+		sb.append(new String(buf, segment, to - segment, StandardCharsets.UTF_8));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,64 @@
+package ru.maklas.jscheme;
+
+/** Difference between a Json document and the scheme, found by {@link SchemeValidator} **/
+public final class Violation {
+
+	public enum Kind {
+		/** Field or array element that the scheme doesn't have **/
+		UNEXPECTED_PATH,
+		/** Value of a type that was never met at this path **/
+		UNEXPECTED_TYPE,
+		/** Null at a path that was never null **/
+		UNEXPECTED_NULL,
+		/** Field that was always present is missing **/
+		MISSING,
+		/** Length of JsonArray is out of the range that was met at this path **/
+		ARRAY_LENGTH
+	}
+
+	private final Kind kind;
+	private final Path path;
+	private final String message;
+	/** Location in the document without leading '$'. Built from the end while validator returns from the element **/
+	private String location;
+	/** Next violation in the chain that validator collects **/
+	Violation next;
+
+	Violation(Kind kind, Path path, String message, String location) {
+		this.kind = kind;
+		this.path = path;
+		this.message = message;
+		this.location = location;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/** Path of the scheme where violation was found. Array elements are '*' **/
+	public Path getPath() {
+		return path;
+	}
+
+	/** Location in the document, in format of {@link com.google.gson.stream.JsonReader#getPath()}, like $.users[3].name **/
+	public String getLocation() {
+		return "$" + location;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	void prependKey(String key) {
+		location = "." + key + location;
+	}
+
+	void prependIndex(int index) {
+		location = "[" + index + "]" + location;
+	}
+
+	@Override
+	public String toString() {
+		return getLocation() + " " + kind + ": " + message;
+	}
+}